@@ -0,0 +1,124 @@
+package com.bugav.battalion.computer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bugav.battalion.computer.GameImpl.Node;
+import com.bugav.battalion.core.Action;
+import com.bugav.battalion.core.Building;
+import com.bugav.battalion.core.Cell;
+import com.bugav.battalion.core.Game;
+import com.bugav.battalion.core.Level;
+import com.bugav.battalion.core.Level.BuildingDesc;
+import com.bugav.battalion.core.Level.UnitDesc;
+import com.bugav.battalion.core.LevelBuilder;
+import com.bugav.battalion.core.Team;
+import com.bugav.battalion.core.Terrain;
+import com.bugav.battalion.core.Unit;
+
+/**
+ * Game.performAction of each action type, undone after each invocation.
+ *
+ * The shipped levels don't have every action type available at their start,
+ * so each action type is performed in a small position built for it. The
+ * action is the first action of the type available in that position.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ActionsBenchmark {
+
+	@Param({ "UnitMove", "UnitMoveAndAttack", "UnitAttackLongRange", "UnitBuild", "UnitTransport",
+			"UnitTransportFinish", "UnitRepair", "TurnEnd" })
+	public String actionType;
+
+	private Game game;
+	private Action action;
+
+	@Setup
+	public void setup() {
+		Game game0 = Game.fromLevel(levelOf(actionType));
+		game0.performAction(Action.Start);
+		Node position = Node.searchRootOf(game0);
+		game = position.game;
+
+		action = findAction(position);
+		if (action == null)
+			throw new IllegalStateException("no " + actionType + " action");
+	}
+
+	/* Red acts from (1, 1), and a Blue unit in the corner keeps the game running */
+	private static Level levelOf(String actionType) {
+		LevelBuilder builder = new LevelBuilder(8, 8);
+		int cell = Cell.of(1, 1);
+		builder.setUnit(Cell.of(6, 6), UnitDesc.of(Unit.Type.Rifleman, Team.Blue));
+		builder.setStartingMoney(Team.Red, 1000);
+		switch (actionType) {
+		case "UnitMove":
+		case "TurnEnd":
+			builder.setUnit(cell, UnitDesc.of(Unit.Type.Rifleman, Team.Red));
+			break;
+		case "UnitMoveAndAttack":
+			builder.setUnit(cell, UnitDesc.of(Unit.Type.Rifleman, Team.Red));
+			builder.setUnit(Cell.of(3, 1), UnitDesc.of(Unit.Type.Rifleman, Team.Blue));
+			break;
+		case "UnitAttackLongRange":
+			builder.setUnit(cell, UnitDesc.of(Unit.Type.Mortar, Team.Red));
+			builder.setUnit(Cell.of(1, 3), UnitDesc.of(Unit.Type.Rifleman, Team.Blue));
+			break;
+		case "UnitBuild":
+			builder.setBuilding(cell, BuildingDesc.of(Building.Type.Factory, Team.Red, true));
+			builder.setBuilding(Cell.of(3, 3), BuildingDesc.of(Building.Type.LandResearchFacility, Team.Red));
+			/* a team without units is eliminated */
+			builder.setUnit(Cell.of(1, 6), UnitDesc.of(Unit.Type.Rifleman, Team.Red));
+			break;
+		case "UnitTransport":
+			builder.setTerrain(cell, Terrain.Shore);
+			builder.setUnit(cell, UnitDesc.of(Unit.Type.Rifleman, Team.Red));
+			builder.setBuilding(Cell.of(3, 3), BuildingDesc.of(Building.Type.NavalControlCenter, Team.Red));
+			break;
+		case "UnitTransportFinish":
+			builder.setTerrain(cell, Terrain.Shore);
+			builder.setUnit(cell,
+					UnitDesc.transporter(Unit.Type.LandingCraft, UnitDesc.of(Unit.Type.Rifleman, Team.Red)));
+			break;
+		case "UnitRepair":
+			builder.setUnit(cell, UnitDesc.of(Unit.Type.Rifleman, Team.Red, 10, true, false));
+			break;
+		default:
+			throw new IllegalArgumentException("Unexpected value: " + actionType);
+		}
+		return builder.buildLevel();
+	}
+
+	private Action findAction(Node position) {
+		if (actionType.equals("TurnEnd"))
+			return Action.TurnEnd;
+		for (Action a : position.availableActions().forEach())
+			if (a.getClass().getSimpleName().equals(actionType))
+				return a;
+		return null;
+	}
+
+	@Benchmark
+	public Game performAction() {
+		game.performAction(action);
+		game.undoAction();
+		return game;
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.bugav.battalion.computer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bugav.battalion.Benchmarks;
+import com.bugav.battalion.core.Action;
+import com.bugav.battalion.core.Game;
+
+/**
+ * Choosing the first action of the level start position.
+ *
+ * The players keep state between actions (caches, transposition table), so a
+ * new player is created for each invocation. The depth 2 MiniMaxAlphaBeta
+ * player may take seconds per action on the large levels.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class PlayersBenchmark {
+
+	@Param({ "level01", "level02", "level03", "level04", "level05", "level06", "level07", "level08", "level09",
+			"level10", "bonus_level" })
+	public String level;
+
+	private Game game;
+	private Player greedy;
+	private Player miniMax;
+
+	@Setup
+	public void setup() {
+		game = Game.fromLevel(Benchmarks.level(level));
+		game.performAction(Action.Start);
+	}
+
+	@Setup(Level.Invocation)
+	public void newPlayers() {
+		greedy = new Greedy.Player();
+		miniMax = new MiniMaxAlphaBeta.Player();
+	}
+
+	@Benchmark
+	public Action greedy() {
+		return greedy.chooseAction(game);
+	}
+
+	@Benchmark
+	public Action miniMax() {
+		return miniMax.chooseAction(game);
+	}
+
+}
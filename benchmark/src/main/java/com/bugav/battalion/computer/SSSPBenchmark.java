@@ -0,0 +1,61 @@
+package com.bugav.battalion.computer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bugav.battalion.Benchmarks;
+import com.bugav.battalion.core.Cell;
+import com.bugav.battalion.core.Game;
+import com.bugav.battalion.core.Terrain;
+import com.bugav.battalion.core.Unit;
+import com.bugav.battalion.util.GraphCSR;
+import com.bugav.battalion.util.SSSPDialCSR;
+
+/* SSSPDialCSR on the layered terrain graph used by the attack plans, from the first unit of the level */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SSSPBenchmark {
+
+	@Param({ "level01", "level02", "level03", "level04", "level05", "level06", "level07", "level08", "level09",
+			"level10", "bonus_level" })
+	public String level;
+
+	@Param({ "true", "false" })
+	public boolean useTransport;
+
+	private final SSSPDialCSR sssp = new SSSPDialCSR();
+	private GraphCSR graph;
+	private int source;
+
+	@Setup
+	public void setup() {
+		Game game = Game.fromLevel(Benchmarks.level(level));
+		Cell.Array<Terrain> terrains = Cell.Array.fromFunc(game.width(), game.height(), game::terrain);
+		ValueFunctionImpl.TerrainDistances terrainDistances = new ValueFunctionImpl.TerrainDistances(terrains);
+		Unit unit = game.units().toList().get(0);
+		graph = terrainDistances.createGraph(
+				new ValueFunctionImpl.TerrainDistances.PassabilityKey(unit.type.canStandOn, useTransport, useTransport));
+		source = terrainDistances.vIdx(unit.getPos(), null);
+	}
+
+	@Benchmark
+	public int[] calcDistances() {
+		return sssp.calcDistances(graph, source);
+	}
+
+}
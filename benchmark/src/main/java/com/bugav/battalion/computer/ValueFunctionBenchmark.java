@@ -0,0 +1,65 @@
+package com.bugav.battalion.computer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bugav.battalion.Benchmarks;
+import com.bugav.battalion.computer.GameImpl.Node;
+import com.bugav.battalion.core.Action;
+import com.bugav.battalion.core.Game;
+
+/* evaluation of a leaf, as done by the search algorithms: apply an action, evaluate and undo it */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ValueFunctionBenchmark {
+
+	@Param({ "level01", "level02", "level03", "level04", "level05", "level06", "level07", "level08", "level09",
+			"level10", "bonus_level" })
+	public String level;
+
+	@Param({ "true", "false" })
+	public boolean incremental;
+
+	private GameImpl gameImpl;
+	private ValueFunctionImpl valueFunc;
+	private Node position;
+	private Action action;
+	private int us;
+
+	@Setup
+	public void setup() {
+		Game game = Game.fromLevel(Benchmarks.level(level));
+		game.performAction(Action.Start);
+		gameImpl = new GameImpl();
+		valueFunc = new ValueFunctionImpl(incremental);
+		position = Node.searchRootOf(game);
+		us = position.getTurn();
+		action = position.availableActions().toList().get(0);
+	}
+
+	@Benchmark
+	public double evaluate() {
+		gameImpl.applyAction(position, action);
+		try {
+			return valueFunc.evaluate(position, us);
+		} finally {
+			gameImpl.undoAction(position);
+		}
+	}
+
+}
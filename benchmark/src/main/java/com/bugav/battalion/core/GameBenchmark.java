@@ -0,0 +1,64 @@
+package com.bugav.battalion.core;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.bugav.battalion.Benchmarks;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GameBenchmark {
+
+	@Param({ "level01", "level02", "level03", "level04", "level05", "level06", "level07", "level08", "level09",
+			"level10", "bonus_level" })
+	public String level;
+
+	private Game game;
+	private List<Unit> units;
+
+	@Setup
+	public void setup() {
+		game = Game.fromLevel(Benchmarks.level(level));
+		game.performAction(Action.Start);
+		units = game.units().toList();
+	}
+
+	@Benchmark
+	public Game copyOf() {
+		return Game.copyOf(game);
+	}
+
+	/* the maps are cached until the units change, all the units maps of a single position are computed */
+
+	@Benchmark
+	public void reachableMaps(Blackhole bh) {
+		game.unitsCache.invalidateAll();
+		for (Unit unit : units)
+			bh.consume(unit.getReachableMap());
+	}
+
+	@Benchmark
+	public void attackableMaps(Blackhole bh) {
+		game.unitsCache.invalidateAll();
+		for (Unit unit : units)
+			bh.consume(unit.getAttackableMap());
+	}
+
+}
@@ -49,7 +49,8 @@ interface Animation {
 
 		@Override
 		public void beforeFirst() {
-			comp.isAnimated = comp.isMoving = true;
+			comp.isMoving = true;
+			comp.setAnimated(true);
 			comp.arena.mapMove.mapMoveStart();
 		}
 
@@ -64,13 +65,13 @@ interface Animation {
 			int idx = cursor / StepSize;
 			int p1 = path.get(idx);
 			int p2 = path.get(idx + 1);
-			comp.orientation = Cell.diffDir(p1, p2);
+			comp.setOrientation(Cell.diffDir(p1, p2));
 			double frac = (cursor % StepSize + 1) / (double) StepSize;
 			int x1 = Cell.x(p1), x2 = Cell.x(p2);
 			int y1 = Cell.y(p1), y2 = Cell.y(p2);
 			double x = x1 + (x2 - x1) * frac;
 			double y = y1 + (y2 - y1) * frac;
-			comp.pos = Position.of(x, y);
+			comp.setPos(Position.of(x, y));
 
 			if (isMapFollow())
 				comp.arena.mapMove.setPos(comp.arena.mapMove.calcMapPosCentered(comp.pos));
@@ -80,10 +81,11 @@ interface Animation {
 
 		@Override
 		public void afterLast() {
-			comp.pos = Position.fromCell(path.last());
+			comp.setPos(Position.fromCell(path.last()));
 			if (isMapFollow())
 				comp.arena.mapMove.setPos(comp.arena.mapMove.calcMapPosCentered(comp.pos));
-			comp.isAnimated = comp.isMoving = false;
+			comp.isMoving = false;
+			comp.setAnimated(false);
 			comp.arena.mapMove.mapMoveEnd();
 		}
 
@@ -122,10 +124,10 @@ interface Animation {
 
 		@Override
 		public void beforeFirst() {
-			comp.isAnimated = true;
+			comp.setAnimated(true);
 			basePos = comp.pos;
-			comp.orientation = calcOrientation(comp.pos, Position.fromCell(target));
-			arena.entityLayer.comps.put(this, this);
+			comp.setOrientation(calcOrientation(comp.pos, Position.fromCell(target)));
+			arena.entityLayer.addComp(this, this);
 		}
 
 		@Override
@@ -133,15 +135,15 @@ interface Animation {
 			if (cursor >= Duration)
 				throw new NoSuchElementException();
 			double yOffset = (Math.abs(Duration / 2 - cursor) - Duration / 2) / 30.0;
-			comp.pos = Position.of(basePos.x, basePos.y + yOffset);
+			comp.setPos(Position.of(basePos.x, basePos.y + yOffset));
 			return ++cursor < Duration;
 		}
 
 		@Override
 		public void afterLast() {
-			comp.isAnimated = false;
-			arena.entityLayer.comps.remove(this);
-			comp.pos = basePos;
+			comp.setAnimated(false);
+			arena.entityLayer.removeComp(this);
+			comp.setPos(basePos);
 		}
 
 		@Override
@@ -187,7 +189,7 @@ interface Animation {
 
 		@Override
 		public void beforeFirst() {
-			comp.isAnimated = true;
+			comp.setAnimated(true);
 			basePos = comp.pos;
 		}
 
@@ -196,14 +198,14 @@ interface Animation {
 			if (cursor >= Duration)
 				throw new NoSuchElementException();
 			double yOffset = (Math.abs(Duration / 2 - cursor) - Duration / 2) / 30.0;
-			comp.pos = Position.of(basePos.x, basePos.y + yOffset);
+			comp.setPos(Position.of(basePos.x, basePos.y + yOffset));
 			return ++cursor < Duration;
 		}
 
 		@Override
 		public void afterLast() {
-			comp.isAnimated = false;
-			comp.pos = basePos;
+			comp.setAnimated(false);
+			comp.setPos(basePos);
 		}
 
 		@Override
@@ -223,7 +225,7 @@ interface Animation {
 
 		@Override
 		public void beforeFirst() {
-			comp.isAnimated = true;
+			comp.setAnimated(true);
 			comp.baseAlphaMax = 0;
 		}
 
@@ -239,7 +241,7 @@ interface Animation {
 		public void afterLast() {
 			comp.baseAlphaMax = 1;
 			comp.alpha = 1;
-			comp.isAnimated = false;
+			comp.setAnimated(false);
 		}
 
 		@Override
@@ -259,7 +261,7 @@ interface Animation {
 
 		@Override
 		public void beforeFirst() {
-			comp.isAnimated = true;
+			comp.setAnimated(true);
 		}
 
 		@Override
@@ -276,7 +278,7 @@ interface Animation {
 		@Override
 		public void afterLast() {
 			comp.alpha = 0;
-			comp.isAnimated = false;
+			comp.setAnimated(false);
 		}
 
 		@Override
@@ -298,8 +300,8 @@ interface Animation {
 
 		@Override
 		public void beforeFirst() {
-			comp.isAnimated = true;
-			arena.entityLayer.comps.put(this, this);
+			comp.setAnimated(true);
+			arena.entityLayer.addComp(this, this);
 		}
 
 		@Override
@@ -313,8 +315,8 @@ interface Animation {
 		@Override
 		public void afterLast() {
 			comp.alpha = 0;
-			arena.entityLayer.comps.remove(this);
-			comp.isAnimated = false;
+			arena.entityLayer.removeComp(this);
+			comp.setAnimated(false);
 		}
 
 		@Override
@@ -362,7 +364,7 @@ interface Animation {
 
 		@Override
 		public void beforeFirst() {
-			arena.entityLayer.comps.put(this, this);
+			arena.entityLayer.addComp(this, this);
 		}
 
 		@Override
@@ -374,7 +376,7 @@ interface Animation {
 
 		@Override
 		public void afterLast() {
-			arena.entityLayer.comps.remove(this);
+			arena.entityLayer.removeComp(this);
 		}
 
 		@Override
@@ -501,8 +503,10 @@ interface Animation {
 			}
 
 			void setPos(Position pos) {
+				Position oldPos = currentPos;
 				currentPos = getMapPosRange().closestContainedPoint(pos);
-				onMapMove.notify(new Event(this));
+				if (!currentPos.equals(oldPos))
+					onMapMove.notify(new Event(this));
 			}
 
 			static class MapPosRange {
@@ -572,6 +576,7 @@ interface Animation {
 				userChosenDx = dx;
 				userChosenDy = dy;
 				userChosenDirValid = true;
+				arena.tickTaskManager.wakeUp();
 			}
 
 			synchronized void userMapMoveCancel() {
@@ -608,6 +613,11 @@ interface Animation {
 				arena.mapMove.setPos(Position.of(x, y));
 			}
 
+			@Override
+			public synchronized int idleTicks() {
+				return userChosenDirValid ? 0 : Integer.MAX_VALUE;
+			}
+
 			@Override
 			public void clear() {
 			}
@@ -697,10 +707,12 @@ interface Animation {
 		final Event.Notifier<Event> onAnimationBegin = new Event.Notifier<>();
 		final Event.Notifier<Event> onAnimationEnd = new Event.Notifier<>();
 		private final Globals globals;
+		private final TickTask.Manager tickTaskManager;
 		private final Logger logger;
 
-		Task(Globals globals, Logger logger) {
+		Task(Globals globals, TickTask.Manager tickTaskManager, Logger logger) {
 			this.globals = Objects.requireNonNull(globals);
+			this.tickTaskManager = Objects.requireNonNull(tickTaskManager);
 			this.logger = Objects.requireNonNull(logger);
 		}
 
@@ -731,6 +743,15 @@ interface Animation {
 			setAnimationRunning(animated);
 		}
 
+		@Override
+		public int idleTicks() {
+			return isTaskRunning && (isAnimationRunning || !queue.isEmpty()) ? 0 : Integer.MAX_VALUE;
+		}
+
+		boolean isAnimationRunning() {
+			return isAnimationRunning;
+		}
+
 		void runAndWait(Animation animation) {
 			animate(animation, false);
 		}
@@ -745,6 +766,7 @@ interface Animation {
 			AnimationEntry entry = new AnimationEntry(animation);
 			if (async) {
 				queue.add(entry);
+				tickTaskManager.wakeUp();
 			} else {
 				if (SwingUtilities.isEventDispatchThread())
 					throw new IllegalStateException("Can't wait for animation from GUI thread");
@@ -752,6 +774,7 @@ interface Animation {
 				try {
 					synchronized (entry) {
 						queue.add(entry);
+						tickTaskManager.wakeUp();
 						entry.wait();
 					}
 				} catch (InterruptedException e) {
@@ -805,4 +828,4 @@ interface Animation {
 
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
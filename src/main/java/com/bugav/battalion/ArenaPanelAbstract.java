@@ -4,7 +4,12 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.Transparency;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
@@ -13,6 +18,7 @@ import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
@@ -66,7 +72,7 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 		this.globals = Objects.requireNonNull(globals);
 
 		Logger animationTaskLogger = new Logger.Enabled(globals.logger, () -> globals.debug.logAnimations);
-		animationTask = new Animation.Task(globals, animationTaskLogger);
+		animationTask = new Animation.Task(globals, tickTaskManager, animationTaskLogger);
 		animationTask.setRunning(true);
 
 		entityLayer = createEntityLayer();
@@ -130,6 +136,7 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 		register.register(mapMove.onMapMove, e -> {
 			for (Pair<JComponent, Position> c : mapPinnedComps)
 				updateBoundsRelativeToMapPos(c.e1, c.e2);
+			entityLayer.repaint();
 		});
 
 		tickTaskManager.addTask(1000, new TickTask() {
@@ -140,7 +147,14 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 
 			@Override
 			public void onTick() {
-				repaint();
+				/* the comps of the running animations may change in every step */
+				if (animationTask.isAnimationRunning())
+					entityLayer.repaintFloatingComps();
+			}
+
+			@Override
+			public int idleTicks() {
+				return Integer.MAX_VALUE;
 			}
 		});
 
@@ -173,6 +187,7 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 	void updateArenaSize(int width, int height) {
 		this.arenaWidth = width;
 		this.arenaHeight = height;
+		entityLayer.invalidateTerrain();
 	}
 
 	int arenaWidth() {
@@ -255,7 +270,11 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 			extends JPanel implements Clearable {
 
 		private final ArenaPanelAbstract<TerrainCompImpl, BuildingCompImpl, UnitCompImpl> arena;
-		final Map<Object, ArenaComp> comps = Collections.synchronizedMap(new IdentityHashMap<>());
+		private final Map<Object, ArenaComp> comps = Collections.synchronizedMap(new IdentityHashMap<>());
+		private final CompsIndex compsIndex = new CompsIndex();
+		private final TerrainLayer terrainLayer = new TerrainLayer();
+		private final FrameStats frameStats;
+		private long lastSyncTime;
 
 		final Event.Notifier<TileClickEvent> onTileClick = new Event.Notifier<>();
 
@@ -265,6 +284,8 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 
 		EntityLayer(ArenaPanelAbstract<TerrainCompImpl, BuildingCompImpl, UnitCompImpl> arena) {
 			this.arena = Objects.requireNonNull(arena);
+			frameStats = new FrameStats(
+					new Logger.Enabled(arena.globals.logger, () -> arena.globals.debug.logFrameStats));
 
 			addMouseListener(mouseListener = new MouseAdapter() {
 				@Override
@@ -281,12 +302,20 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 
 		@Override
 		protected void paintComponent(Graphics g) {
+			boolean logFrameStats = arena.globals.debug.logFrameStats;
+			if (logFrameStats)
+				frameStats.frameBegin();
+
+			/* the cells in the repainted region, which is only the dirty part of the layer */
+			Rectangle clip = g.getClipBounds();
+			if (clip == null)
+				clip = new Rectangle(0, 0, getWidth(), getHeight());
+			int xmin = Math.floorDiv(arena.displayedXInv(clip.x), TILE_SIZE_PIXEL);
+			int xmax = Math.floorDiv(arena.displayedXInv(clip.x + clip.width), TILE_SIZE_PIXEL);
+			int ymin = Math.floorDiv(arena.displayedYInv(clip.y), TILE_SIZE_PIXEL);
+			int ymax = Math.floorDiv(arena.displayedYInv(clip.y + clip.height), TILE_SIZE_PIXEL);
+
 			/* paint cells out of map */
-			Position mapPos = arena.mapMove.getCurrent();
-			int xmin = (int) Math.floor(mapPos.x);
-			int xmax = (int) Math.ceil(mapPos.x + arena.displayedArenaWidth());
-			int ymin = (int) Math.floor(mapPos.y);
-			int ymax = (int) Math.ceil(mapPos.y + arena.displayedArenaHeight());
 			g.setColor(Color.BLACK);
 			for (Iter.Int it = Cell.Iter2D.of(xmin, xmax + 1, ymin, ymax + 1); it.hasNext();) {
 				int cell = it.next();
@@ -297,26 +326,13 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 				g.fillRect(x, y, TILE_SIZE_PIXEL, TILE_SIZE_PIXEL);
 			}
 
-			List<ArenaComp> comps = new ArrayList<>(this.comps.values());
-			comps.sort((o1, o2) -> {
-				int c;
-				if ((c = Integer.compare(o1.getZOrder(), o2.getZOrder())) != 0)
-					return c;
-				Position p1 = o1.pos(), p2 = o2.pos();
-				if ((c = Double.compare(p1.y, p2.y)) != 0)
-					return c;
-				if ((c = Double.compare(p1.x, p2.x)) != 0)
-					return c;
-				if ((o1 instanceof TerrainComp) ^ (o2 instanceof TerrainComp))
-					return o1 instanceof TerrainComp ? -1 : 1;
-				if ((o1 instanceof BuildingComp) ^ (o2 instanceof BuildingComp))
-					return o1 instanceof BuildingComp ? -1 : 1;
-				if ((o1 instanceof UnitComp) ^ (o2 instanceof UnitComp))
-					return o1 instanceof UnitComp ? -1 : 1;
-				return 0;
-			});
-			for (ArenaComp comp : comps)
-				comp.paintComponent(g);
+			/*
+			 * The static terrain is pre-rendered, the other comps are painted in order.
+			 * Sprites may exceed their cell up and to the right, so the cells left and
+			 * below the repainted range are painted too.
+			 */
+			terrainLayer.paint(g);
+			compsIndex.paint(g, xmin - 1, xmax, ymin, ymax + 1);
 
 			if (arena.globals.debug.showGrid) {
 				Font font = g.getFont();
@@ -338,22 +354,337 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 				font = new Font(font.getName(), font.getStyle(), fontSize);
 				g.setFont(font);
 				g.setColor(Color.MAGENTA);
-				for (ArenaComp comp0 : comps) {
-					if (!(comp0 instanceof UnitComp))
-						continue;
-					UnitComp comp = (UnitComp) comp0;
-					int id = arena.globals.debug.getUnitID(comp.unit);
-					int x = arena.displayedXCell(comp.pos.x) + 2;
-					int y = arena.displayedYCell(comp.pos.y) + TILE_SIZE_PIXEL - 2;
-					g.drawString("U" + id, x, y);
+				synchronized (comps) {
+					for (ArenaComp comp0 : comps.values()) {
+						if (!(comp0 instanceof UnitComp))
+							continue;
+						UnitComp comp = (UnitComp) comp0;
+						int id = arena.globals.debug.getUnitID(comp.unit);
+						int x = arena.displayedXCell(comp.pos.x) + 2;
+						int y = arena.displayedYCell(comp.pos.y) + TILE_SIZE_PIXEL - 2;
+						g.drawString("U" + id, x, y);
+					}
 				}
 			}
+
+			/* flush the frame now rather than when the window system gets to it, at most once a tick */
+			long now = System.nanoTime();
+			if (now - lastSyncTime >= TickTask.Manager.TickNanos) {
+				Toolkit.getDefaultToolkit().sync();
+				lastSyncTime = now;
+			}
+			if (logFrameStats)
+				frameStats.frameEnd();
+		}
+
+		ArenaComp getComp(Object key) {
+			return comps.get(key);
+		}
+
+		void addComp(Object key, ArenaComp comp) {
+			Objects.requireNonNull(comp);
+			Utils.swingRun(() -> {
+				ArenaComp oldComp = comps.put(key, comp);
+				if (oldComp != null)
+					compsIndex.remove(oldComp);
+				compsIndex.add(comp);
+				if (comp instanceof TerrainComp || oldComp instanceof TerrainComp)
+					invalidateTerrain();
+			});
+		}
+
+		ArenaComp removeComp(Object key) {
+			Utils.Holder<ArenaComp> comp = new Utils.Holder<>();
+			Utils.swingRun(() -> {
+				comp.val = comps.remove(key);
+				if (comp.val != null)
+					compsIndex.remove(comp.val);
+				if (comp.val instanceof TerrainComp)
+					invalidateTerrain();
+			});
+			return comp.val;
+		}
+
+		/* must be called when the position or the z order of a comp change */
+		void compUpdated(ArenaComp comp) {
+			Utils.swingRun(() -> compsIndex.update(comp));
+		}
+
+		/*
+		 * Repaint the cells within a distance from a position. Sprites exceed their
+		 * cell up to the cell above, which is repainted too.
+		 */
+		void repaintCells(Position pos, int distance) {
+			int x = arena.displayedXCell(pos.x - distance);
+			int y = arena.displayedYCell(pos.y - distance - 1);
+			int size = (2 * distance + 1) * TILE_SIZE_PIXEL;
+			repaint(x, y, size, size + TILE_SIZE_PIXEL);
+		}
+
+		void repaintFloatingComps() {
+			compsIndex.repaintFloating();
 		}
 
 		void removeAllArenaComps() {
-			for (ArenaComp comp : comps.values())
-				comp.clear();
-			comps.clear();
+			synchronized (comps) {
+				for (ArenaComp comp : comps.values())
+					comp.clear();
+				comps.clear();
+			}
+			invalidateTerrain();
+		}
+
+		/* must be called when the terrain or the terrain comps change */
+		void invalidateTerrain() {
+			terrainLayer.invalidate();
+			compsIndex.invalidate();
+			repaint();
+		}
+
+		private static final Comparator<ArenaComp> PaintOrder = (o1, o2) -> {
+			int c;
+			if ((c = Integer.compare(o1.getZOrder(), o2.getZOrder())) != 0)
+				return c;
+			Position p1 = o1.pos(), p2 = o2.pos();
+			if ((c = Double.compare(p1.y, p2.y)) != 0)
+				return c;
+			if ((c = Double.compare(p1.x, p2.x)) != 0)
+				return c;
+			return Integer.compare(kindOrder(o1), kindOrder(o2));
+		};
+
+		private static int kindOrder(ArenaComp comp) {
+			if (comp instanceof TerrainComp)
+				return 0;
+			if (comp instanceof BuildingComp)
+				return 1;
+			if (comp instanceof UnitComp)
+				return 2;
+			return 3;
+		}
+
+		/*
+		 * The comps in paint order. The comps at rest, in the default z order at a cell
+		 * of the arena, are kept in a grid of the cells, each cell ordered by kind, and
+		 * painting walks only the displayed cells. The few other comps, animated or at
+		 * a fractional position, are kept in a list ordered by PaintOrder, and the ones
+		 * in the default z order are merged into the walk by their position. Only tall
+		 * terrain comps are indexed, the rest of the terrain is pre-rendered. Confined
+		 * to the EDT, and rebuilt from the comps after invalidation.
+		 */
+		private class CompsIndex {
+
+			private List<ArenaComp>[] grid;
+			private int width, height;
+			private final List<ArenaComp> floating = new ArrayList<>();
+			private boolean floatingSorted = true;
+			private final Map<ArenaComp, Place> places = new IdentityHashMap<>();
+			private volatile boolean valid;
+
+			void invalidate() {
+				valid = false;
+			}
+
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			private void validate() {
+				if (valid && width == arena.arenaWidth && height == arena.arenaHeight)
+					return;
+				width = arena.arenaWidth;
+				height = arena.arenaHeight;
+				grid = new List[width * height];
+				floating.clear();
+				places.clear();
+				valid = true;
+				synchronized (comps) {
+					for (ArenaComp comp : comps.values())
+						index(comp);
+				}
+			}
+
+			private int place(ArenaComp comp) {
+				if (comp.getZOrder() != ArenaComp.ZOrderDefault)
+					return -1;
+				Position pos = comp.pos();
+				if (!Utils.isInteger(pos.x) || !Utils.isInteger(pos.y))
+					return -1;
+				int x = (int) pos.x, y = (int) pos.y;
+				if (!(0 <= x && x < width && 0 <= y && y < height))
+					return -1;
+				return y * width + x;
+			}
+
+			void add(ArenaComp comp) {
+				if (index(comp))
+					repaintCells(comp.pos(), 0);
+			}
+
+			private boolean index(ArenaComp comp) {
+				if (!valid || (comp instanceof TerrainComp terrainComp && !terrainComp.isTall()))
+					return false;
+				int place = place(comp);
+				places.put(comp, new Place(place, comp.pos()));
+				if (place >= 0) {
+					List<ArenaComp> cellComps = grid[place];
+					if (cellComps == null)
+						grid[place] = cellComps = new ArrayList<>(2);
+					int kind = kindOrder(comp), idx = cellComps.size();
+					while (idx > 0 && kindOrder(cellComps.get(idx - 1)) > kind)
+						idx--;
+					cellComps.add(idx, comp);
+				} else {
+					floating.add(comp);
+					floatingSorted = false;
+				}
+				return true;
+			}
+
+			void remove(ArenaComp comp) {
+				if (!valid)
+					return;
+				Place place = places.remove(comp);
+				if (place == null)
+					return;
+				repaintCells(place.pos, 0);
+				if (place.idx >= 0) {
+					grid[place.idx].remove(comp);
+				} else {
+					floating.remove(comp);
+				}
+			}
+
+			void update(ArenaComp comp) {
+				if (!valid)
+					return;
+				/* floating comps may depend on other comps, such as an animation of a unit */
+				floatingSorted = false;
+				if (places.containsKey(comp)) {
+					remove(comp);
+					add(comp);
+				}
+			}
+
+			void paint(Graphics g, int xmin, int xmax, int ymin, int ymax) {
+				validate();
+				if (!floatingSorted) {
+					floating.sort(PaintOrder);
+					floatingSorted = true;
+				}
+				int f = 0, floatingNum = floating.size();
+				for (int y = Math.max(ymin, 0); y <= Math.min(ymax, height - 1); y++) {
+					for (int x = Math.max(xmin, 0); x <= Math.min(xmax, width - 1); x++) {
+						for (ArenaComp comp; f < floatingNum
+								&& (comp = floating.get(f)).getZOrder() == ArenaComp.ZOrderDefault
+								&& (comp.pos().y < y || (comp.pos().y == y && comp.pos().x < x)); f++)
+							comp.paintComponent(g);
+						List<ArenaComp> cellComps = grid[y * width + x];
+						if (cellComps != null)
+							for (int i = 0; i < cellComps.size(); i++)
+								cellComps.get(i).paintComponent(g);
+					}
+				}
+				for (; f < floatingNum; f++)
+					floating.get(f).paintComponent(g);
+			}
+
+			void repaintFloating() {
+				if (!valid)
+					return;
+				for (int i = 0; i < floating.size(); i++)
+					repaintCells(floating.get(i).pos(), 0);
+			}
+
+		}
+
+		private static class Place {
+			/* the grid index of a comp, -1 for floating comps */
+			final int idx;
+			/* the position of a comp when it was indexed, to repaint when it changes */
+			final Position pos;
+
+			Place(int idx, Position pos) {
+				this.idx = idx;
+				this.pos = pos;
+			}
+		}
+
+		int terrainFrame() {
+			return 0;
+		}
+
+		int terrainFramesNum() {
+			return 1;
+		}
+
+		/*
+		 * The terrain of the whole map, rendered once for each terrain gesture frame
+		 * into an image compatible with the screen. Each repaint copies only the
+		 * displayed part of the current frame.
+		 */
+		private class TerrainLayer {
+
+			private Image[] frames;
+			private int width, height;
+			private final List<TerrainComp> terrainComps = new ArrayList<>();
+
+			void invalidate() {
+				frames = null;
+			}
+
+			private void validate() {
+				int width = arena.arenaWidth * TILE_SIZE_PIXEL, height = arena.arenaHeight * TILE_SIZE_PIXEL;
+				if (frames != null && frames.length == terrainFramesNum() && this.width == width
+						&& this.height == height)
+					return;
+				frames = new Image[terrainFramesNum()];
+				this.width = width;
+				this.height = height;
+
+				terrainComps.clear();
+				synchronized (comps) {
+					for (ArenaComp comp : comps.values())
+						if (comp instanceof TerrainComp terrainComp)
+							terrainComps.add(terrainComp);
+				}
+				terrainComps.sort((c1, c2) -> {
+					int p1 = c1.pos, p2 = c2.pos, c;
+					if ((c = Integer.compare(Cell.y(p1), Cell.y(p2))) != 0)
+						return c;
+					return Integer.compare(Cell.x(p1), Cell.x(p2));
+				});
+			}
+
+			void paint(Graphics g) {
+				validate();
+				if (width == 0 || height == 0)
+					return;
+				int frame = terrainFrame();
+				if (frames[frame] == null)
+					frames[frame] = render(frame);
+
+				/* the map origin on the screen, and the displayed part of the map */
+				int x0 = arena.displayedX(0), y0 = arena.displayedY(0);
+				int sx1 = Math.max(0, -x0), sy1 = Math.max(0, -y0);
+				int sx2 = Math.min(width, getWidth() - x0), sy2 = Math.min(height, getHeight() - y0);
+				if (sx1 < sx2 && sy1 < sy2)
+					g.drawImage(frames[frame], x0 + sx1, y0 + sy1, x0 + sx2, y0 + sy2, sx1, sy1, sx2, sy2, null);
+			}
+
+			private Image render(int frame) {
+				GraphicsConfiguration gc = getGraphicsConfiguration();
+				BufferedImage img = gc != null ? gc.createCompatibleImage(width, height, Transparency.OPAQUE)
+						: new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+				Graphics2D g = img.createGraphics();
+				try {
+					/* the comps draw relative to the current map position */
+					g.translate(-arena.displayedX(0), -arena.displayedY(0));
+					for (TerrainComp comp : terrainComps)
+						comp.paintFrame(g, frame);
+				} finally {
+					g.dispose();
+				}
+				return img;
+			}
+
 		}
 
 		@Override
@@ -427,9 +758,14 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 
 		@Override
 		public void paintComponent(Graphics g) {
+			paintFrame(g, arena.entityLayer.terrainFrame());
+		}
+
+		void paintFrame(Graphics g, int frame) {
+			int gesture = getGasture(frame);
 			Terrain terrain = arena.getTerrain(pos);
 			if (terrain == Terrain.ClearWater) {
-				arena.drawRelativeToMap(g, Images.Terrains.get(terrain, getGasture()), pos);
+				arena.drawRelativeToMap(g, Images.Terrains.get(terrain, gesture), pos);
 				for (int quadrant = 0; quadrant < 4; quadrant++) {
 					Pair<Direction, Direction> dirs = quadrantToDirs(quadrant);
 					Direction d1 = dirs.e1, d2 = dirs.e2;
@@ -437,7 +773,7 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 					IntPredicate isWater = p -> !arena.isInArena(p) || arena.getTerrain(p).hasWater();
 					boolean c1 = !isWater.test(p1), c2 = !isWater.test(p2), c3 = !isWater.test(p3);
 					if (c1 || c2 || c3)
-						arena.drawRelativeToMap(g, Images.WaterEdges.get(quadrant, c1, c2, getGasture()), pos);
+						arena.drawRelativeToMap(g, Images.WaterEdges.get(quadrant, c1, c2, gesture), pos);
 				}
 
 			} else if (terrain == Terrain.Road) {
@@ -467,7 +803,7 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 				}
 
 			} else if (terrain == Terrain.Shore) {
-				arena.drawRelativeToMap(g, Images.Terrains.get(Terrain.ClearWater, getGasture()), pos);
+				arena.drawRelativeToMap(g, Images.Terrains.get(Terrain.ClearWater, gesture), pos);
 				Set<Direction> connections = EnumSet.noneOf(Direction.class);
 
 				for (int quadrant = 0; quadrant < 4; quadrant++) {
@@ -487,18 +823,18 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 						connections.add(dirs.e1);
 
 					if (!(c1 || c2) && c3) {
-						arena.drawRelativeToMap(g, Images.WaterEdges.get(quadrant, false, false, getGasture()), pos);
+						arena.drawRelativeToMap(g, Images.WaterEdges.get(quadrant, false, false, gesture), pos);
 					} else if (c1 || c2) {
-						arena.drawRelativeToMap(g, Images.Shores.get(quadrant, c1, c2, getGasture()), pos);
+						arena.drawRelativeToMap(g, Images.Shores.get(quadrant, c1, c2, gesture), pos);
 					}
 				}
 				if (connections.isEmpty()) {
 					for (int quadrant = 0; quadrant < 4; quadrant++)
-						arena.drawRelativeToMap(g, Images.Shores.get(quadrant, true, true, getGasture()), pos);
+						arena.drawRelativeToMap(g, Images.Shores.get(quadrant, true, true, gesture), pos);
 				}
 
 			} else {
-				arena.drawRelativeToMap(g, Images.Terrains.get(terrain, getGasture()), pos);
+				arena.drawRelativeToMap(g, Images.Terrains.get(terrain, gesture), pos);
 			}
 		}
 
@@ -539,7 +875,12 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 			return Position.fromCell(pos);
 		}
 
-		int getGasture() {
+		/* terrain tiles taller than a cell overlap the cell above them */
+		boolean isTall() {
+			return Images.Terrains.get(arena.getTerrain(pos), 0).getHeight() > TILE_SIZE_PIXEL;
+		}
+
+		int getGasture(int frame) {
 			return 0;
 		}
 
@@ -598,7 +939,9 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 	static abstract class UnitComp extends ArenaCompAbstract {
 
 		private final IUnit unit;
+		/* modified only by setPos() */
 		volatile Position pos;
+		/* modified only by setOrientation() */
 		volatile Direction orientation = Direction.XPos;
 		volatile boolean isMoving = false;
 
@@ -612,6 +955,16 @@ abstract class ArenaPanelAbstract<TerrainCompImpl extends ArenaPanelAbstract.Ter
 			return unit;
 		}
 
+		void setPos(Position pos) {
+			this.pos = Objects.requireNonNull(pos);
+			arena.entityLayer.compUpdated(this);
+		}
+
+		void setOrientation(Direction orientation) {
+			this.orientation = Objects.requireNonNull(orientation);
+			arena.entityLayer.repaintCells(pos, 0);
+		}
+
 		@Override
 		public void paintComponent(Graphics g) {
 			arena.drawRelativeToMap(g, getUnitImg(), pos);
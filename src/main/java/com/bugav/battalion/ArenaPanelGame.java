@@ -104,6 +104,7 @@ class ArenaPanelGame extends ArenaPanelGameAbstract {
 		selection = selectionType;
 		selectedEntity = entity;
 		onSelectionChange.notify(new SelectionChange(this, selectionType, entity));
+		entityLayer.repaint();
 	}
 
 	private void cellClicked(int cell) {
@@ -498,6 +499,7 @@ class ArenaPanelGame extends ArenaPanelGameAbstract {
 				return;
 			Unit unit = (Unit) selectedEntity;
 
+			repaintMovePath();
 			if (unit.getAttackableMap().contains(hovered)) {
 				updateAttackMovePath(unit, hovered);
 				setCursor0(CursorAttack);
@@ -509,6 +511,13 @@ class ArenaPanelGame extends ArenaPanelGameAbstract {
 			} else {
 				setCursor0(CursorCancel);
 			}
+			repaintMovePath();
+		}
+
+		private void repaintMovePath() {
+			repaintCells(Position.fromCell(selectedEntity.getPos()), 0);
+			for (int i = 0; i < movePath.size(); i++)
+				repaintCells(Position.fromCell(movePath.get(i)), 0);
 		}
 
 		private void updateAttackMovePath(Unit attacker, int targetPos) {
@@ -11,6 +11,7 @@ import com.bugav.battalion.Animation.MapMove.Manager.MapPosRange;
 import com.bugav.battalion.core.Building;
 import com.bugav.battalion.core.Cell;
 import com.bugav.battalion.core.Direction;
+import com.bugav.battalion.core.Entity;
 import com.bugav.battalion.core.Game;
 import com.bugav.battalion.core.Team;
 import com.bugav.battalion.core.Terrain;
@@ -27,6 +28,14 @@ abstract class ArenaPanelGameAbstract extends
 
 	private static final long serialVersionUID = 1L;
 
+	private static final int TerrainFramesNum;
+	static {
+		int framesNum = 1;
+		for (Terrain terrain : Terrain.values())
+			framesNum = Utils.lcm(framesNum, Images.Terrains.gestureNum(terrain));
+		TerrainFramesNum = framesNum;
+	}
+
 	ArenaPanelGameAbstract(Game game, Globals globals) {
 		super(globals);
 		this.game = game;
@@ -67,7 +76,7 @@ abstract class ArenaPanelGameAbstract extends
 				animationTask.runAndWait(createMapCenterAnimation(e.unit));
 				UnitComp comp = new UnitComp(e.unit);
 				comp.baseAlphaMax = 0;
-				Utils.swingRun(() -> comps.put(e.unit, comp));
+				addComp(e.unit, comp);
 				Animation animation;
 				if (!e.unit.type.invisible) {
 					animation = new Animation.UnitAppear(comp);
@@ -77,12 +86,12 @@ abstract class ArenaPanelGameAbstract extends
 				animationTask.runAndWait(animation);
 			});
 			register.register(game.onUnitRemove, Utils.swingListener(e -> {
-				UnitComp unitComp = (UnitComp) comps.remove(e.unit);
+				UnitComp unitComp = (UnitComp) removeComp(e.unit);
 				if (unitComp != null)
 					unitComp.clear();
 			}));
 			register.register(game.onUnitDeath, e -> {
-				UnitComp unitComp = (UnitComp) comps.get(e.unit);
+				UnitComp unitComp = (UnitComp) getComp(e.unit);
 				Animation animation = new Animation.UnitDeath(ArenaPanelGameAbstract.this, unitComp);
 				animationTask.runAndWait(animation);
 			});
@@ -91,12 +100,12 @@ abstract class ArenaPanelGameAbstract extends
 				animationPath.add(e.unit.getPos());
 				animationPath.addAll(e.path);
 
-				UnitComp comp = (UnitComp) comps.get(e.unit);
+				UnitComp comp = (UnitComp) getComp(e.unit);
 				Animation animation = new Animation.UnitMove(comp, animationPath);
 				if (e.path.size() < e.plannedPath.size()) {
 					int lastMove = e.path.size() - 1;
 					Direction lastOrientation = Cell.diffDir(e.path.get(lastMove), e.plannedPath.get(lastMove + 1));
-					Animation orientation = Animation.ofSingleStep(() -> comp.orientation = lastOrientation);
+					Animation orientation = Animation.ofSingleStep(() -> comp.setOrientation(lastOrientation));
 					animation = Animation.sequence(animation, orientation);
 				}
 				animation = appearDisappearAnimationWrap(comp, animation);
@@ -105,25 +114,30 @@ abstract class ArenaPanelGameAbstract extends
 			});
 			register.register(game.beforeUnitAttack, e -> {
 				int target = e.target.getPos();
-				UnitComp comp = (UnitComp) comps.get(e.attacker);
+				UnitComp comp = (UnitComp) getComp(e.attacker);
 				Animation animation = new Animation.Attack(ArenaPanelGameAbstract.this, comp, target);
 				animation = Animation.sequence(new Animation.Delay(4), animation);
 				animation = appearDisappearAnimationWrap(comp, animation);
 				Animation orientation = Animation.ofSingleStep(
-						() -> comp.orientation = Animation.calcOrientation(comp.pos, Position.fromCell(target)));
+						() -> comp.setOrientation(Animation.calcOrientation(comp.pos, Position.fromCell(target))));
 				animation = Animation.sequence(orientation, animation);
 				animation = makeSureAnimationIsVisible(animation, ListInt.of(e.attacker.getPos(), target));
 				animationTask.runAndWait(animation);
 			});
-			register.register(game.onEntityChange, e -> {
+			register.register(game.onEntityChange, Utils.swingListener(e -> {
+				/* the visibility of a unit depends on its neighbors */
 				if (e.source instanceof Unit unit) {
-					UnitComp comp = (UnitComp) comps.get(unit);
-					if (comp != null)
-						comp.pos = Position.fromCell(unit.getPos());
+					UnitComp comp = (UnitComp) getComp(unit);
+					if (comp != null) {
+						repaintCells(comp.pos, 1);
+						comp.setPos(Position.fromCell(unit.getPos()));
+					}
 				}
-			});
+				if (e.source instanceof Entity entity)
+					repaintCells(Position.fromCell(entity.getPos()), 1);
+			}));
 			register.register(game.onConquerProgress, e -> {
-				UnitComp unitComp = (UnitComp) comps.get(e.conquerer);
+				UnitComp unitComp = (UnitComp) getComp(e.conquerer);
 				Animation animation = new Animation.Conquer(unitComp);
 				animation = Animation.sequence(createMapCenterAnimation(e.conquerer), animation);
 				animationTask.runAndWait(animation);
@@ -131,20 +145,23 @@ abstract class ArenaPanelGameAbstract extends
 			register.register(game.onTeamElimination, e -> {
 				List<Animation> animations = new ArrayList<>();
 				for (Unit unit : game.units(e.team).forEach()) {
-					UnitComp comp = (UnitComp) comps.get(unit);
+					UnitComp comp = (UnitComp) getComp(unit);
 					animations.add(new Animation.UnitDeath(ArenaPanelGameAbstract.this, comp));
 				}
 				for (Building building : game.buildings(e.team).forEach()) {
-					BuildingComp comp = (BuildingComp) comps.get(building);
+					BuildingComp comp = (BuildingComp) getComp(building);
 					animations.add(new Animation.BuildingExplosion(ArenaPanelGameAbstract.this, comp));
 				}
 				animationTask.runAndWait(Animation.parallel(animations.toArray(n -> new Animation[n])));
 			});
 			register.register(game.onActionEnd, e -> {
+				/* an action may change the state of any unit, such as the end of a turn */
+				repaint();
 				Animation animation = new Animation.Delay(10);
 				animationTask.runAndWait(animation);
 			});
 
+			register.register(gestureTask.onGestureChange, e -> repaint());
 			tickTaskManager.addTask(100, gestureTask);
 		}
 
@@ -155,21 +172,31 @@ abstract class ArenaPanelGameAbstract extends
 			super.clear();
 		}
 
+		@Override
+		int terrainFrame() {
+			return gestureTask.getGesture() % TerrainFramesNum;
+		}
+
+		@Override
+		int terrainFramesNum() {
+			return TerrainFramesNum;
+		}
+
 		void reset() {
 			removeAllArenaComps();
 
 			for (Iter.Int it = game.cells(); it.hasNext();) {
 				int cell = it.next();
 				TerrainComp terrainComp = new TerrainComp(cell);
-				comps.put(terrainComp, terrainComp);
+				addComp(terrainComp, terrainComp);
 
 				Unit unit = game.unit(cell);
 				if (unit != null)
-					comps.put(unit, new UnitComp(unit));
+					addComp(unit, new UnitComp(unit));
 
 				Building building = game.building(cell);
 				if (building != null)
-					comps.put(building, new BuildingComp(cell, building));
+					addComp(building, new BuildingComp(cell, building));
 
 			}
 		}
@@ -234,8 +261,8 @@ abstract class ArenaPanelGameAbstract extends
 			}
 
 			@Override
-			int getGasture() {
-				return gestureTask.getGesture() % Images.Terrains.gestureNum(getTerrain(pos));
+			int getGasture(int frame) {
+				return frame % Images.Terrains.gestureNum(getTerrain(pos));
 			}
 		}
 
@@ -278,6 +305,7 @@ abstract class ArenaPanelGameAbstract extends
 
 		class UnitComp extends ArenaPanelAbstract.UnitComp {
 
+			/* modified only by setAnimated() */
 			volatile boolean isAnimated;
 			float alpha = 0.0f;
 			float baseAlphaMax = 1.0f;
@@ -355,7 +383,7 @@ abstract class ArenaPanelGameAbstract extends
 				BufferedImage img = super.getUnitImg();
 
 				if (unit().getTeam() == game.getTurn() && !unit().isActive())
-					img = Utils.imgDarken(img, .7f);
+					img = Images.Units.darkImg(img);
 
 				float alpha0 = calcAlpha();
 				if (alpha0 != 1.0)
@@ -385,6 +413,11 @@ abstract class ArenaPanelGameAbstract extends
 				return isAnimated ? ZOrderAnimated : ZOrderDefault;
 			}
 
+			void setAnimated(boolean animated) {
+				isAnimated = animated;
+				arena.entityLayer.compUpdated(this);
+			}
+
 		}
 
 	}
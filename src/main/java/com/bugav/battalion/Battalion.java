@@ -6,7 +6,9 @@ public class Battalion {
 	}
 
 	public static void main(String[] args) {
-		GameFrame frame = new GameFrame();
+		long startTime = System.nanoTime();
+		Images.Loader.preload();
+		GameFrame frame = new GameFrame(startTime);
 		frame.setLocationRelativeTo(null); /* middle of the screen */
 		frame.setVisible(true);
 	}
@@ -13,6 +13,8 @@ class Debug {
 	boolean logGameActions;
 	boolean logComputerStats;
 	boolean logAnimations;
+	boolean logFrameStats;
+	boolean logStartupTime;
 	boolean skipAnimations;
 
 	private int unitIDCounter;
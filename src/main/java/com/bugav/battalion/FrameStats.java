@@ -0,0 +1,98 @@
+package com.bugav.battalion;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import com.bugav.battalion.util.Logger;
+
+/**
+ * Statistics of the painted frames, the time it took to paint each one and the
+ * interval between consecutive frames.
+ *
+ * The times are kept in histograms of 0.1ms buckets, so recording a frame
+ * doesn't allocate anything, and are logged and reset periodically. Intervals
+ * longer than Period, in which nothing was painted, are ignored.
+ */
+class FrameStats {
+
+	private final Logger logger;
+	private final Histogram paintTimes = new Histogram();
+	private final Histogram intervals = new Histogram();
+	private long lastFrameTime;
+	private long periodBegin;
+
+	private static final long Period = 5_000_000_000L;
+
+	FrameStats(Logger logger) {
+		this.logger = Objects.requireNonNull(logger);
+	}
+
+	void frameBegin() {
+		long now = System.nanoTime();
+		if (lastFrameTime != 0 && now - lastFrameTime < Period)
+			intervals.add(now - lastFrameTime);
+		lastFrameTime = now;
+	}
+
+	void frameEnd() {
+		long now = System.nanoTime();
+		paintTimes.add(now - lastFrameTime);
+		if (periodBegin == 0) {
+			periodBegin = now;
+		} else if (now - periodBegin >= Period) {
+			logger.dbgln("frames: ", Integer.valueOf(paintTimes.count), " paint [", paintTimes.toString(), "] interval [",
+					intervals.toString(), "]");
+			paintTimes.clear();
+			intervals.clear();
+			periodBegin = now;
+		}
+	}
+
+	private static class Histogram {
+
+		private final int[] buckets = new int[BucketsNum + 1]; /* last bucket for overflow */
+		private int count;
+		private long sum;
+		private long max;
+
+		private static final long BucketNanos = 100_000;
+		private static final int BucketsNum = 1000;
+
+		void add(long nanos) {
+			buckets[(int) Math.min(nanos / BucketNanos, BucketsNum)]++;
+			count++;
+			sum += nanos;
+			max = Math.max(max, nanos);
+		}
+
+		void clear() {
+			Arrays.fill(buckets, 0);
+			count = 0;
+			sum = 0;
+			max = 0;
+		}
+
+		/* upper bound of the bucket of the p-th percentile, in nanoseconds */
+		private long percentile(double p) {
+			int rank = (int) Math.ceil(count * p);
+			for (int b = 0, c = 0; b < BucketsNum; b++)
+				if ((c += buckets[b]) >= rank)
+					return (b + 1) * BucketNanos;
+			return max;
+		}
+
+		private static String ms(long nanos) {
+			return String.format("%.1f", nanos / 1e6);
+		}
+
+		@Override
+		public String toString() {
+			if (count == 0)
+				return "none";
+			return "avg=" + ms(sum / count) + "ms p50=" + ms(percentile(0.5)) + "ms p95=" + ms(percentile(0.95))
+					+ "ms p99=" + ms(percentile(0.99)) + "ms max=" + ms(max) + "ms";
+		}
+
+	}
+
+}
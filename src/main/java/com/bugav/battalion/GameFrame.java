@@ -8,6 +8,7 @@ import javax.swing.JComponent;
 import javax.swing.JFrame;
 
 import com.bugav.battalion.Levels.LevelHandle;
+import com.bugav.battalion.util.Logger;
 
 class GameFrame extends JFrame {
 
@@ -20,7 +21,7 @@ class GameFrame extends JFrame {
 
 	private static final long serialVersionUID = 1L;
 
-	GameFrame() {
+	GameFrame(long startTime) {
 		super(TITLE);
 		setLayout(new GridLayout(1, 1));
 
@@ -35,7 +36,14 @@ class GameFrame extends JFrame {
 		setIconImage(Images.FrameIcon);
 
 		/* By default display main menu */
-		openMainMenu();
+		MainMenuWindow mainMenu = new MainMenuWindow(globals);
+		Logger startupLogger = new Logger.Enabled(globals.logger, () -> globals.debug.logStartupTime);
+		mainMenu.onFirstFrame.addListener(e -> {
+			startupLogger.dbgln("startup: first menu frame after ",
+					Long.valueOf((System.nanoTime() - startTime) / 1_000_000), "ms, ", Images.Loader.stats());
+			Images.Loader.clearPrefetched();
+		});
+		displayWindow(mainMenu);
 	}
 
 	void openMainMenu() {
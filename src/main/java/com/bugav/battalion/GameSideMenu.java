@@ -237,16 +237,12 @@ class GameSideMenu extends Menus.ColumnWithMargins implements Clearable {
 			game = window.game;
 			setPreferredSize(new Dimension(game.width() * TileSize, game.height() * TileSize));
 
-			window.arenaPanel.tickTaskManager.addTask(1000, new TickTask() {
-				@Override
-				public void clear() {
-				}
-
-				@Override
-				public void onTick() {
-					repaint();
-				}
-			});
+			Event.Listener<Event> repainter = e -> repaint();
+			register.register(window.arenaPanel.mapMove.onMapMove, repainter);
+			register.register(game.onEntityChange, repainter);
+			register.register(game.onUnitAdd, repainter);
+			register.register(game.onUnitRemove, repainter);
+			register.register(game.onActionEnd, repainter);
 		}
 
 		private void drawImg(Graphics g, int cell, BufferedImage img) {
@@ -134,7 +134,9 @@ class GameWindow extends JPanel implements Clearable {
 				Game visibleGame = Game.modificationOf(game, u -> game.isUnitVisible(u.getPos(), us));
 				Action action = computer.chooseAction(visibleGame);
 				long t1 = System.currentTimeMillis();
-				computerLogger.dbgln("Engine action computed in " + (t1 - t0) + "ms");
+				computerLogger.dbgln("Engine action computed in ", Long.valueOf(t1 - t0), "ms");
+				if (computer.getLastActionStats() != null)
+					computerLogger.dbgln("Engine search stats: ", computer.getLastActionStats());
 				if (action == null || action == Action.TurnEnd) {
 					game.performAction(Action.TurnEnd);
 					return;
@@ -7,11 +7,13 @@ import java.util.function.IntConsumer;
 import com.bugav.battalion.core.Building;
 import com.bugav.battalion.core.Terrain;
 import com.bugav.battalion.core.Unit;
+import com.bugav.battalion.util.Event;
 import com.bugav.battalion.util.Utils;
 
 class GestureTask implements TickTask {
 
 	private int counter = 0;
+	final Event.Notifier<Event> onGestureChange = new Event.Notifier<>();
 	private static final int GestureDuration = 16;
 	private static final int GestureNum;
 	static {
@@ -42,6 +44,20 @@ class GestureTask implements TickTask {
 	public void onTick() {
 		final int cycleLength = GestureNum * GestureDuration;
 		counter = (counter + 1) % cycleLength;
+		if (counter % GestureDuration == 0)
+			onGestureChange.notify(new Event(this));
+	}
+
+	@Override
+	public int idleTicks() {
+		return GestureDuration - 1 - counter % GestureDuration;
+	}
+
+	@Override
+	public void skipTicks(int ticks) {
+		if (ticks > idleTicks())
+			throw new IllegalArgumentException("skipping a gesture change: " + ticks);
+		counter += ticks;
 	}
 
 	int getGesture() {
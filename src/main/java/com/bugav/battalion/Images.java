@@ -6,10 +6,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 import javax.imageio.ImageIO;
@@ -21,6 +29,7 @@ import com.bugav.battalion.core.IUnit;
 import com.bugav.battalion.core.Team;
 import com.bugav.battalion.core.Terrain;
 import com.bugav.battalion.core.Unit;
+import com.bugav.battalion.util.IdentityWeakHashMap;
 import com.bugav.battalion.util.Utils;
 
 class Images {
@@ -235,6 +244,14 @@ class Images {
 			return checkExists(imgs, Desc.ofMove(type, team, orientation, gesture));
 		}
 
+		/* darkened variant of a unit image, derived on first use */
+		static BufferedImage darkImg(BufferedImage img) {
+			return darkImgs.computeIfAbsent(img, i -> Utils.imgDarken(i, .7f));
+		}
+
+		private static final Map<BufferedImage, BufferedImage> darkImgs = Collections
+				.synchronizedMap(new IdentityWeakHashMap<>());
+
 		static int standGestureNum(Unit.Type type) {
 			switch (type) {
 			case Rifleman:
@@ -795,12 +812,88 @@ class Images {
 	}
 
 	private static BufferedImage loadImg(String path) {
-		try {
-			return ImageIO.read(new File(path));
-		} catch (IOException e) {
-			throw new UncheckedIOException("Failed to load img file: " + path, e);
+		return Loader.load(path);
+	}
+
+	/**
+	 * Decodes the image files in parallel, ahead of their first use.
+	 *
+	 * preload() submits the files of the frequently used categories to a pool, and
+	 * loadImg() takes the decoded image if it was submitted, or decodes it
+	 * otherwise. Submitted files that were not taken by the first displayed frame
+	 * are dropped by clearPrefetched(). The images are still sliced and derived by
+	 * the static initializers of the categories, on the thread accessing them
+	 * first, which can't be done in the background as the categories depend on
+	 * each other (Terrains and Shores) and concurrent class initialization could
+	 * deadlock.
+	 */
+	static class Loader {
+		private Loader() {
+		}
+
+		private static final Map<String, CompletableFuture<BufferedImage>> prefetched = new ConcurrentHashMap<>();
+		private static final LongAdder decodedNum = new LongAdder();
+		private static final LongAdder decodeTime = new LongAdder();
+		private static final List<String> PreloadDirs = List.of("img/gui", "img/terrain", "img/unit", "img/building");
+
+		static void preload() {
+			int threadsNum = Runtime.getRuntime().availableProcessors();
+			ExecutorService pool = Executors.newFixedThreadPool(threadsNum, r -> {
+				Thread thread = new Thread(r, "images-loader");
+				thread.setDaemon(true);
+				return thread;
+			});
+			for (String dir : PreloadDirs) {
+				String[] files = new File(dir).list((d, name) -> name.endsWith(".png"));
+				if (files == null)
+					continue;
+				for (String file : files) {
+					String path = dir + "/" + file;
+					prefetched.computeIfAbsent(path, p -> CompletableFuture.supplyAsync(() -> decode(p), pool));
+				}
+			}
+			pool.shutdown();
+		}
+
+		static void clearPrefetched() {
+			for (CompletableFuture<BufferedImage> img : prefetched.values())
+				img.cancel(false);
+			prefetched.clear();
+		}
+
+		static BufferedImage load(String path) {
+			/* a file may be loaded more than once, and its image modified by the caller */
+			CompletableFuture<BufferedImage> img = prefetched.remove(path);
+			if (img == null)
+				return decode(path);
+			try {
+				return img.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException cause)
+					throw cause;
+				throw e;
+			}
+		}
+
+		private static BufferedImage decode(String path) {
+			long begin = System.nanoTime();
+			try {
+				/* convert to the format of the sliced sprites, which is faster to draw */
+				BufferedImage img = ImageIO.read(new File(path));
+				return Utils.imgSub(img, 0, 0, img.getWidth(), img.getHeight());
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to load img file: " + path, e);
+			} finally {
+				decodedNum.increment();
+				decodeTime.add(System.nanoTime() - begin);
+			}
 		}
-	};
+
+		static String stats() {
+			return "decoded " + decodedNum.sum() + " images in " + decodeTime.sum() / 1_000_000 + "ms";
+		}
+
+	}
 
 	private static BufferedImage toBlue(BufferedImage redImg) {
 		if (redImg.getRaster().getNumBands() != 4)
@@ -478,9 +478,11 @@ class LevelBuilderWindow extends JPanel implements Clearable {
 				super(arena);
 
 				register.register(builder.onTileChange, e -> {
-					TerrainComp comp = (TerrainComp) comps.computeIfAbsent(terrainKey(e.cell),
-							k -> new TerrainComp(e.cell));
+					TerrainComp comp = (TerrainComp) getComp(terrainKey(e.cell));
+					if (comp == null)
+						addComp(terrainKey(e.cell), comp = new TerrainComp(e.cell));
 					comp.tileUpdate();
+					invalidateTerrain();
 				});
 			}
 
@@ -490,7 +492,7 @@ class LevelBuilderWindow extends JPanel implements Clearable {
 				for (Iter.Int it = Cell.Iter2D.of(builder.width(), builder.height()); it.hasNext();) {
 					int cell = it.next();
 					TerrainComp tileComp = new TerrainComp(cell);
-					comps.put(terrainKey(cell), tileComp);
+					addComp(terrainKey(cell), tileComp);
 					tileComp.tileUpdate();
 				}
 			}
@@ -513,19 +515,19 @@ class LevelBuilderWindow extends JPanel implements Clearable {
 				void tileUpdate() {
 					BuildingDesc building = builder.building(pos);
 					if (buildingComp != null && building != buildingComp.building()) {
-						comps.remove(buildingComp.building()).clear();
+						removeComp(buildingComp.building()).clear();
 						buildingComp = null;
 					}
 					if (building != null && buildingComp == null)
-						comps.put(building, buildingComp = new BuildingComp(ArenaPanel.this, pos, building));
+						addComp(building, buildingComp = new BuildingComp(ArenaPanel.this, pos, building));
 
 					UnitDesc unit = builder.unit(pos);
 					if (unitComp != null && unit != unitComp.unit()) {
-						comps.remove(unitComp.unit()).clear();
+						removeComp(unitComp.unit()).clear();
 						unitComp = null;
 					}
 					if (unit != null && unitComp == null)
-						comps.put(unit, unitComp = new UnitComp(ArenaPanel.this, pos, unit));
+						addComp(unit, unitComp = new UnitComp(ArenaPanel.this, pos, unit));
 				}
 
 			}
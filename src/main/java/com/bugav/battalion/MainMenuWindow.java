@@ -3,6 +3,7 @@ package com.bugav.battalion;
 import java.awt.CardLayout;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Graphics;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.ComponentAdapter;
@@ -46,6 +47,9 @@ class MainMenuWindow extends JLayeredPane implements Clearable {
 
 	private final AnimatedGames animatedGames;
 
+	final Event.Notifier<Event> onFirstFrame = new Event.Notifier<>();
+	private boolean isFirstFramePainted;
+
 	private static final long serialVersionUID = 1L;
 
 	MainMenuWindow(Globals globals) {
@@ -100,6 +104,15 @@ class MainMenuWindow extends JLayeredPane implements Clearable {
 		return tabsPanel;
 	}
 
+	@Override
+	public void paint(Graphics g) {
+		super.paint(g);
+		if (!isFirstFramePainted) {
+			isFirstFramePainted = true;
+			onFirstFrame.notify(new Event(this));
+		}
+	}
+
 	private void showTab(Tab tab) {
 		((CardLayout) tabsPanel.getLayout()).show(tabsPanel, tab.name);
 	}
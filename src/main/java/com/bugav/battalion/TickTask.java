@@ -1,5 +1,7 @@
 package com.bugav.battalion;
 
+import java.awt.DisplayMode;
+import java.awt.GraphicsEnvironment;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -10,41 +12,145 @@ import com.bugav.battalion.util.Pair;
 
 interface TickTask extends Clearable {
 
+	/* called once per tick, a fixed time step of 1 / TickFPS seconds */
 	void onTick();
 
+	/**
+	 * Get the number of following ticks the task has nothing to do in.
+	 *
+	 * The manager doesn't tick while all of its tasks are idle. A task that has
+	 * something to do before its idle ticks are over, such as on user input, should
+	 * call Manager.wakeUp().
+	 *
+	 * @return the number of ticks the task can skip, or Integer.MAX_VALUE if it is
+	 *         idle until the manager is woken up
+	 */
+	default int idleTicks() {
+		return 0;
+	}
+
+	/* called instead of onTick() for the ticks skipped while all the tasks were idle */
+	default void skipTicks(int ticks) {
+	}
+
+	/**
+	 * Runs the tasks on the EDT, by a Swing timer.
+	 *
+	 * The ticks are a fixed time step, independent of the timer. Each time the
+	 * timer fires, all the ticks due since the last one are run, so animations
+	 * keep their speed when the EDT is late, and the timer fires once per display
+	 * frame rather than once per tick, so no frames are painted that the display
+	 * doesn't show. After a long stall only a limited number of ticks is run, and
+	 * the rest are dropped.
+	 */
 	static class Manager {
 
 		private final Timer tickTimer;
 		private final List<Pair<TickTask, Integer>> tasks = new ArrayList<>();
+		private boolean isStarted;
+		private boolean isAwake;
+		private int sleepTicks;
+		private long lastTickTime;
 		private static final int TickFPS = 120;
+		static final long TickNanos = 1_000_000_000L / TickFPS;
+		private static final int MaxCatchUpTicks = TickFPS / 10;
+		private static final int FrameMillis = frameMillis();
 
 		Manager() {
-			tickTimer = new Timer(1000 / TickFPS, e -> {
+			tickTimer = new Timer(FrameMillis, e -> tick());
+			tickTimer.setRepeats(true);
+		}
+
+		private static int frameMillis() {
+			int fps = TickFPS;
+			if (!GraphicsEnvironment.isHeadless()) {
+				DisplayMode mode = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+						.getDisplayMode();
+				if (mode.getRefreshRate() != DisplayMode.REFRESH_RATE_UNKNOWN)
+					fps = Math.min(fps, mode.getRefreshRate());
+			}
+			return 1000 / fps;
+		}
+
+		private void tick() {
+			long now = System.nanoTime();
+			long dueTicks = (now - lastTickTime) / TickNanos;
+			if (dueTicks <= 0)
+				return;
+			int skipped;
+			synchronized (this) {
+				isAwake = false;
+				/* the timer slept through the idle ticks, unless it was woken up early */
+				skipped = (int) Math.min(sleepTicks, dueTicks - 1);
+				sleepTicks = 0;
+			}
+			if (skipped > 0)
 				for (Pair<TickTask, Integer> task : tasks)
+					task.e1.skipTicks(skipped);
+
+			long ticks = dueTicks - skipped;
+			if (ticks <= MaxCatchUpTicks) {
+				lastTickTime += dueTicks * TickNanos;
+			} else {
+				ticks = MaxCatchUpTicks;
+				lastTickTime = now;
+			}
+			int idleTicks = Integer.MAX_VALUE;
+			for (; ticks > 0; ticks--) {
+				idleTicks = Integer.MAX_VALUE;
+				for (Pair<TickTask, Integer> task : tasks) {
 					task.e1.onTick();
-			});
-			tickTimer.setRepeats(true);
+					idleTicks = Math.min(idleTicks, task.e1.idleTicks());
+				}
+			}
+
+			synchronized (this) {
+				if (isAwake || !isStarted || idleTicks <= 0)
+					return;
+				sleepTicks = idleTicks;
+				if (idleTicks == Integer.MAX_VALUE) {
+					tickTimer.stop();
+				} else {
+					long delay = lastTickTime + (idleTicks + 1) * TickNanos - System.nanoTime();
+					tickTimer.setInitialDelay((int) Math.max(0, (delay + 999_999) / 1_000_000));
+					tickTimer.restart();
+				}
+			}
+		}
+
+		/* wake up a sleeping manager, must be called when an idle task has something to do */
+		synchronized void wakeUp() {
+			isAwake = true;
+			if (isStarted && sleepTicks > 0) {
+				tickTimer.setInitialDelay(0);
+				tickTimer.restart();
+			}
 		}
 
-		void addTask(int priorary, TickTask task) {
-			if (tickTimer.isRunning())
+		synchronized void addTask(int priorary, TickTask task) {
+			if (isStarted)
 				throw new IllegalStateException();
 			tasks.add(Pair.of(Objects.requireNonNull(task), Integer.valueOf(priorary)));
 		}
 
-		void start() {
-			if (tickTimer.isRunning())
+		synchronized void start() {
+			if (isStarted)
 				return;
 			tasks.sort((p1, p2) -> {
 				int priorary1 = p1.e2.intValue(), priorary2 = p2.e2.intValue();
 				return Integer.compare(priorary1, priorary2);
 			});
+			isStarted = true;
+			sleepTicks = 0;
+			lastTickTime = System.nanoTime();
+			tickTimer.setInitialDelay(FrameMillis);
 			tickTimer.start();
 		}
 
-		void stop() {
+		synchronized void stop() {
 			for (Pair<TickTask, Integer> task : tasks)
 				task.e1.clear();
+			isStarted = false;
 			tickTimer.stop();
 		}
 	}
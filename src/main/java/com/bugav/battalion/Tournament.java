@@ -0,0 +1,431 @@
+package com.bugav.battalion;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import com.bugav.battalion.computer.Greedy;
+import com.bugav.battalion.computer.MCTS;
+import com.bugav.battalion.computer.MiniMaxAlphaBeta;
+import com.bugav.battalion.computer.Player;
+import com.bugav.battalion.core.Action;
+import com.bugav.battalion.core.Game;
+import com.bugav.battalion.core.Level;
+import com.bugav.battalion.core.Team;
+
+/**
+ * Headless computer vs computer tournament.
+ *
+ * Each pair of players plays each level with both colors, without any GUI or
+ * animations, and multiple matches are played concurrently. The results of the
+ * matches, the Elo estimation of each player and the actions latency
+ * percentiles are written as JSON or CSV.
+ *
+ * <pre>
+ * Usage: Tournament [options] level.xml...
+ *   --players p1,p2,...  players specs (default greedy,minimax):
+ *                        greedy, minimax, alphabeta:MS[:THREADS], mcts:MS[:THREADS]
+ *   --rounds N           number of times each pairing is played (default 1)
+ *   --threads N          matches played concurrently (default number of cores)
+ *   --max-turns N        turns limit of a match, a draw if reached (default 100)
+ *   --format json|csv    output format (default json)
+ *   --out FILE           output file (default standard output)
+ * </pre>
+ */
+public class Tournament {
+
+	private final List<PlayerSpec> players;
+	private final List<LevelSpec> levels;
+	private final int rounds;
+	private final int threads;
+	private final int maxTurns;
+
+	private static final double EloInitial = 1500;
+	private static final double EloK = 16;
+
+	Tournament(List<PlayerSpec> players, List<LevelSpec> levels, int rounds, int threads, int maxTurns) {
+		if (players.isEmpty() || levels.isEmpty() || rounds <= 0 || threads <= 0 || maxTurns <= 0)
+			throw new IllegalArgumentException();
+		this.players = List.copyOf(players);
+		this.levels = List.copyOf(levels);
+		this.rounds = rounds;
+		this.threads = threads;
+		this.maxTurns = maxTurns;
+	}
+
+	public static void main(String[] args) {
+		List<String> playersSpecs = List.of("greedy", "minimax");
+		List<String> levelsPaths = new ArrayList<>();
+		int rounds = 1, threads = Runtime.getRuntime().availableProcessors(), maxTurns = 100;
+		String format = "json", outPath = null;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("--")) {
+				levelsPaths.add(arg);
+				continue;
+			}
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("missing value for " + arg);
+			String val = args[++i];
+			switch (arg) {
+			case "--players":
+				playersSpecs = Arrays.asList(val.split(","));
+				break;
+			case "--rounds":
+				rounds = Integer.parseInt(val);
+				break;
+			case "--threads":
+				threads = Integer.parseInt(val);
+				break;
+			case "--max-turns":
+				maxTurns = Integer.parseInt(val);
+				break;
+			case "--format":
+				format = val;
+				break;
+			case "--out":
+				outPath = val;
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option: " + arg);
+			}
+		}
+		if (!format.equals("json") && !format.equals("csv"))
+			throw new IllegalArgumentException("unknown format: " + format);
+		if (levelsPaths.isEmpty())
+			throw new IllegalArgumentException("no levels");
+
+		List<PlayerSpec> players = new ArrayList<>();
+		for (String spec : playersSpecs)
+			players.add(PlayerSpec.valueOf(spec));
+		List<LevelSpec> levels = new ArrayList<>();
+		LevelSerializer serializer = new LevelSerializerXML();
+		for (String path : levelsPaths)
+			levels.add(new LevelSpec(path, serializer.levelRead(path)));
+
+		Results results = new Tournament(players, levels, rounds, threads, maxTurns).run();
+
+		try (PrintStream out = outPath != null ? new PrintStream(outPath) : null) {
+			PrintStream out0 = out != null ? out : System.out;
+			if (format.equals("json")) {
+				results.writeJson(out0);
+			} else {
+				results.writeCsv(out0);
+			}
+			out0.flush();
+		} catch (FileNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	Results run() {
+		/* each pair of players plays each level with both colors */
+		List<MatchSpec> matches = new ArrayList<>();
+		for (int round = 0; round < rounds; round++)
+			for (LevelSpec level : levels)
+				for (int red = 0; red < players.size(); red++)
+					for (int blue = 0; blue < players.size(); blue++)
+						if (red != blue || players.size() == 1)
+							matches.add(new MatchSpec(matches.size(), level, red, blue));
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<MatchResult>> futures = new ArrayList<>(matches.size());
+			for (MatchSpec match : matches)
+				futures.add(executor.submit(() -> play(match)));
+			List<MatchResult> results = new ArrayList<>(matches.size());
+			for (Future<MatchResult> f : futures) {
+				try {
+					results.add(f.get());
+				} catch (InterruptedException | ExecutionException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return new Results(players, results);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private MatchResult play(MatchSpec match) {
+		Map<Team, Player> teamPlayers = new EnumMap<>(Team.class);
+		teamPlayers.put(Team.Red, players.get(match.red).factory.get());
+		teamPlayers.put(Team.Blue, players.get(match.blue).factory.get());
+		Map<Team, LongList> latencies = new EnumMap<>(Team.class);
+		for (Team team : Team.values())
+			latencies.put(team, new LongList());
+
+		long t0 = System.nanoTime();
+		Game game = Game.fromLevel(match.level.level);
+		game.performAction(Action.Start);
+		int turns = 0;
+		try {
+			while (!game.isFinished() && turns < maxTurns) {
+				final Team us = game.getTurn();
+				Game visibleGame = Game.modificationOf(game, u -> game.isUnitVisible(u.getPos(), us));
+				long a0 = System.nanoTime();
+				Action action = teamPlayers.get(us).chooseAction(visibleGame);
+				latencies.get(us).add(System.nanoTime() - a0);
+				if (action == null || action == Action.TurnEnd) {
+					game.performAction(Action.TurnEnd);
+					turns++;
+				} else {
+					game.performAction(action);
+				}
+			}
+		} catch (RuntimeException e) {
+			System.err.println("match " + match.idx + " (" + match.level.path + ") failed:");
+			e.printStackTrace();
+			return new MatchResult(match, null, true, turns, System.nanoTime() - t0, latencies);
+		}
+		Team winner = game.isFinished() ? game.getWinner() : null;
+		return new MatchResult(match, winner, false, turns, System.nanoTime() - t0, latencies);
+	}
+
+	static class PlayerSpec {
+		final String name;
+		final Supplier<Player> factory;
+
+		PlayerSpec(String name, Supplier<Player> factory) {
+			this.name = Objects.requireNonNull(name);
+			this.factory = Objects.requireNonNull(factory);
+		}
+
+		static PlayerSpec valueOf(String spec) {
+			String[] parts = spec.split(":");
+			long timeLimit = parts.length > 1 ? Long.parseLong(parts[1]) : 0;
+			int parallelism = parts.length > 2 ? Integer.parseInt(parts[2]) : 1;
+			switch (parts[0]) {
+			case "greedy":
+				return new PlayerSpec(spec, Greedy.Player::new);
+			case "minimax":
+				return new PlayerSpec(spec, MiniMaxAlphaBeta.Player::new);
+			case "alphabeta":
+				if (timeLimit <= 0)
+					throw new IllegalArgumentException("alphabeta requires a time limit: " + spec);
+				return new PlayerSpec(spec, () -> new MiniMaxAlphaBeta.Player(timeLimit, parallelism));
+			case "mcts":
+				if (timeLimit <= 0)
+					throw new IllegalArgumentException("mcts requires a time limit: " + spec);
+				return new PlayerSpec(spec, () -> new MCTS.Player(0, timeLimit, parallelism));
+			default:
+				throw new IllegalArgumentException("unknown player: " + spec);
+			}
+		}
+	}
+
+	static class LevelSpec {
+		final String path;
+		final Level level;
+
+		LevelSpec(String path, Level level) {
+			this.path = Objects.requireNonNull(path);
+			this.level = Objects.requireNonNull(level);
+		}
+	}
+
+	private static class MatchSpec {
+		final int idx;
+		final LevelSpec level;
+		final int red, blue; /* players indices */
+
+		MatchSpec(int idx, LevelSpec level, int red, int blue) {
+			this.idx = idx;
+			this.level = level;
+			this.red = red;
+			this.blue = blue;
+		}
+	}
+
+	private static class MatchResult {
+		final MatchSpec match;
+		final Team winner; /* null for a draw */
+		final boolean failed;
+		final int turns;
+		final long time; /* nanoseconds */
+		final Map<Team, LongList> latencies;
+
+		MatchResult(MatchSpec match, Team winner, boolean failed, int turns, long time,
+				Map<Team, LongList> latencies) {
+			this.match = match;
+			this.winner = winner;
+			this.failed = failed;
+			this.turns = turns;
+			this.time = time;
+			this.latencies = latencies;
+		}
+
+		int player(Team team) {
+			return team == Team.Red ? match.red : match.blue;
+		}
+
+		String outcome() {
+			return failed ? "error" : winner != null ? winner.toString() : "draw";
+		}
+	}
+
+	static class Results {
+
+		private final List<PlayerSpec> players;
+		private final List<MatchResult> matches;
+		private final double[] elo;
+		private final int[] wins, losses, draws;
+		private final LongList[] latencies;
+
+		private static final double[] Percentiles = { 50, 90, 99, 100 };
+
+		private Results(List<PlayerSpec> players, List<MatchResult> matches) {
+			this.players = players;
+			this.matches = matches;
+			int n = players.size();
+			elo = new double[n];
+			Arrays.fill(elo, EloInitial);
+			wins = new int[n];
+			losses = new int[n];
+			draws = new int[n];
+			latencies = new LongList[n];
+			for (int p = 0; p < n; p++)
+				latencies[p] = new LongList();
+
+			/* the matches are processed by their order, not by their completion time */
+			for (MatchResult match : matches) {
+				for (Team team : Team.values())
+					latencies[match.player(team)].addAll(match.latencies.get(team));
+				if (match.failed)
+					continue;
+				int red = match.player(Team.Red), blue = match.player(Team.Blue);
+				if (red == blue) {
+					/* self play, only the Elo of different players is comparable */
+					if (match.winner == null) {
+						draws[red]++;
+					} else {
+						wins[red]++;
+						losses[red]++;
+					}
+					continue;
+				}
+				double redScore;
+				if (match.winner == null) {
+					draws[red]++;
+					draws[blue]++;
+					redScore = 0.5;
+				} else if (match.winner == Team.Red) {
+					wins[red]++;
+					losses[blue]++;
+					redScore = 1;
+				} else {
+					wins[blue]++;
+					losses[red]++;
+					redScore = 0;
+				}
+				double redExpected = 1 / (1 + Math.pow(10, (elo[blue] - elo[red]) / 400));
+				double delta = EloK * (redScore - redExpected);
+				elo[red] += delta;
+				elo[blue] -= delta;
+			}
+		}
+
+		void writeJson(PrintStream out) {
+			out.println("{");
+			out.println("  \"matches\": [");
+			for (int i = 0; i < matches.size(); i++) {
+				MatchResult m = matches.get(i);
+				out.print("    {\"level\": " + jsonStr(m.match.level.path));
+				out.print(", \"red\": " + jsonStr(players.get(m.match.red).name));
+				out.print(", \"blue\": " + jsonStr(players.get(m.match.blue).name));
+				out.print(", \"winner\": " + jsonStr(m.outcome()));
+				out.print(", \"turns\": " + m.turns);
+				out.print(", \"timeMs\": " + m.time / 1_000_000);
+				out.println("}" + (i < matches.size() - 1 ? "," : ""));
+			}
+			out.println("  ],");
+			out.println("  \"players\": [");
+			for (int p = 0; p < players.size(); p++) {
+				out.print("    {\"name\": " + jsonStr(players.get(p).name));
+				out.print(", \"elo\": " + Math.round(elo[p]));
+				out.print(", \"wins\": " + wins[p] + ", \"losses\": " + losses[p] + ", \"draws\": " + draws[p]);
+				out.print(", \"actions\": " + latencies[p].size());
+				out.print(", \"latencyMs\": {");
+				for (int i = 0; i < Percentiles.length; i++)
+					out.print((i > 0 ? ", " : "") + "\"" + percentileName(Percentiles[i]) + "\": "
+							+ String.format("%.3f", latencies[p].percentile(Percentiles[i]) / 1e6));
+				out.println("}}" + (p < players.size() - 1 ? "," : ""));
+			}
+			out.println("  ]");
+			out.println("}");
+		}
+
+		void writeCsv(PrintStream out) {
+			out.println("level,red,blue,winner,turns,timeMs");
+			for (MatchResult m : matches)
+				out.println(String.join(",", m.match.level.path, players.get(m.match.red).name,
+						players.get(m.match.blue).name, m.outcome(), Integer.toString(m.turns),
+						Long.toString(m.time / 1_000_000)));
+			out.println();
+
+			StringBuilder header = new StringBuilder("player,elo,wins,losses,draws,actions");
+			for (double percentile : Percentiles)
+				header.append(",latencyMs_").append(percentileName(percentile));
+			out.println(header);
+			for (int p = 0; p < players.size(); p++) {
+				StringBuilder row = new StringBuilder();
+				row.append(players.get(p).name).append(',').append(Math.round(elo[p]));
+				row.append(',').append(wins[p]).append(',').append(losses[p]).append(',').append(draws[p]);
+				row.append(',').append(latencies[p].size());
+				for (double percentile : Percentiles)
+					row.append(',').append(String.format("%.3f", latencies[p].percentile(percentile) / 1e6));
+				out.println(row);
+			}
+		}
+
+		private static String percentileName(double percentile) {
+			return percentile == 100 ? "max" : "p" + (int) percentile;
+		}
+
+		private static String jsonStr(String s) {
+			return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+		}
+
+	}
+
+	private static class LongList {
+		private long[] data = new long[16];
+		private int size;
+
+		void add(long x) {
+			if (size == data.length)
+				data = Arrays.copyOf(data, data.length * 2);
+			data[size++] = x;
+		}
+
+		void addAll(LongList l) {
+			for (int i = 0; i < l.size; i++)
+				add(l.data[i]);
+		}
+
+		int size() {
+			return size;
+		}
+
+		/* nearest rank percentile, zero if empty */
+		double percentile(double percentile) {
+			if (size == 0)
+				return 0;
+			long[] sorted = Arrays.copyOf(data, size);
+			Arrays.sort(sorted);
+			int rank = (int) Math.ceil(percentile / 100 * size);
+			return sorted[Math.max(rank, 1) - 1];
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.bugav.battalion.computer;
+
+import com.bugav.battalion.computer.GameImpl.Node;
+import com.bugav.battalion.core.Action;
+import com.bugav.battalion.core.Building;
+import com.bugav.battalion.core.Cell;
+import com.bugav.battalion.core.Game;
+import com.bugav.battalion.core.Unit;
+
+class ActionOrderingImpl implements GameTreeAlg.ActionOrdering<Action, GameImpl.Node> {
+
+	private static class Weight {
+		static final double Attack = 1;
+		static final double Kill = 50;
+		static final double Conquer = 40;
+	}
+
+	@Override
+	public double staticScore(Node position, Action action) {
+		Game game = position.game;
+		if (action instanceof Action.UnitMoveAndAttack a)
+			return attackScore(game.unit(a.getAttacker()), game.unit(a.getTarget()));
+		if (action instanceof Action.UnitAttackLongRange a)
+			return attackScore(game.unit(a.getAttacker()), game.unit(a.getTarget()));
+		if (action instanceof Action.UnitMove a) {
+			Unit unit = game.unit(a.getSource());
+			Building building = game.building(a.getDestination());
+			if (unit.type.canConquer && building != null && building.getTeam() != unit.getTeam())
+				return Weight.Conquer;
+		}
+		return 0;
+	}
+
+	private static double attackScore(Unit attacker, Unit target) {
+		int damage = Math.min(attacker.getDamge(target), target.getHealth());
+		double score = Weight.Attack + damage;
+		if (damage >= target.getHealth())
+			score += Weight.Kill;
+		return score;
+	}
+
+	@Override
+	public int historyKey(Node position, Action action) {
+		/* keyed by (unit type, destination) */
+		int source, destination;
+		if (action instanceof Action.UnitMove a) {
+			source = a.getSource();
+			destination = a.getDestination();
+		} else if (action instanceof Action.UnitMoveAndAttack a) {
+			source = a.getAttacker();
+			destination = a.getDestination();
+		} else {
+			return -1;
+		}
+		Unit unit = position.game.unit(source);
+		return (unit.type.ordinal() << 20) | ((Cell.x(destination) & 0x3ff) << 10) | (Cell.y(destination) & 0x3ff);
+	}
+
+}
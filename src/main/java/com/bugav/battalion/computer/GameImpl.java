@@ -15,6 +15,16 @@ import com.bugav.battalion.util.Iter;
 
 class GameImpl implements IGame<Action, GameImpl.Node> {
 
+	private final SearchStats stats;
+
+	GameImpl() {
+		this(new SearchStats());
+	}
+
+	GameImpl(SearchStats stats) {
+		this.stats = Objects.requireNonNull(stats);
+	}
+
 	@Override
 	public int getNumberOfPlayers() {
 		return Team.values().length;
@@ -27,6 +37,29 @@ class GameImpl implements IGame<Action, GameImpl.Node> {
 		return child;
 	}
 
+	@Override
+	public Node copyPosition(Node position) {
+		return searchRootOf(position.game);
+	}
+
+	/* Node.searchRootOf(), with the copy recorded in the statistics */
+	Node searchRootOf(Game game) {
+		long t0 = System.nanoTime();
+		Node root = Node.searchRootOf(game);
+		stats.gameCopied(System.nanoTime() - t0);
+		return root;
+	}
+
+	@Override
+	public void applyAction(Node position, Action action) {
+		position.game.performAction(action);
+	}
+
+	@Override
+	public void undoAction(Node position) {
+		position.game.undoAction();
+	}
+
 	static int turnObjToInt(Team team) {
 		return team.ordinal();
 	}
@@ -43,6 +76,16 @@ class GameImpl implements IGame<Action, GameImpl.Node> {
 			this.game = Objects.requireNonNull(game);
 		}
 
+		/**
+		 * Create a search root on a private copy of a game that supports applying and
+		 * undoing actions in place.
+		 */
+		static Node searchRootOf(Game game) {
+			Game searchGame = Game.copyOf(game);
+			searchGame.setUndoEnabled(true);
+			return new Node(searchGame);
+		}
+
 		@Override
 		public boolean isTerminated() {
 			return game.isFinished();
@@ -53,21 +96,105 @@ class GameImpl implements IGame<Action, GameImpl.Node> {
 			return GameImpl.turnObjToInt(game.getTurn());
 		}
 
+		@Override
+		public long getHash() {
+			return game.getZobristHash();
+		}
+
 		@Override
 		public Iter<Action> availableActions() {
 			if (isTerminated())
 				return Iter.empty();
 			List<Action> actions = new ArrayList<>();
-			final Team us = game.getTurn();
-
-			for (Unit unit : game.units().filter(u -> us == u.getTeam() && u.isActive()).forEach())
+			Team us = game.getTurn();
+			for (Unit unit : game.units(us).forEach())
 				unitAvailableActions(unit, actions);
+			for (Building factory : game.buildings(us).forEach())
+				if (isActiveFactory(factory))
+					factoryAvailableActions(factory, actions);
+			return Iter.of(actions);
+		}
 
-			for (Building factory : game.buildings()
-					.filter(b -> us == b.getTeam() && b.isActive() && b.type.canBuildUnits).forEach())
-				factoryAvailableActions(factory, actions);
+		@Override
+		public int availableActionsNum() {
+			if (isTerminated())
+				return 0;
+			int count = 0;
+			Team us = game.getTurn();
+			for (Unit unit : game.units(us).forEach())
+				if (unit.isActive())
+					count += unitAvailableActionsNum(unit);
+			for (Building factory : game.buildings(us).forEach())
+				if (isActiveFactory(factory))
+					count += factoryAvailableActionsNum(factory);
+			return count;
+		}
 
-			return Iter.of(actions);
+		/*
+		 * Only the actions of the unit or factory containing the index are created,
+		 * the others are only counted.
+		 */
+		@Override
+		public Action availableAction(int idx) {
+			if (idx < 0 || isTerminated())
+				throw new IndexOutOfBoundsException(idx);
+			List<Action> actions = new ArrayList<>();
+			Team us = game.getTurn();
+			for (Unit unit : game.units(us).forEach()) {
+				if (!unit.isActive())
+					continue;
+				int num = unitAvailableActionsNum(unit);
+				if (idx < num) {
+					unitAvailableActions(unit, actions);
+					return actions.get(idx);
+				}
+				idx -= num;
+			}
+			for (Building factory : game.buildings(us).forEach()) {
+				if (!isActiveFactory(factory))
+					continue;
+				int num = factoryAvailableActionsNum(factory);
+				if (idx < num) {
+					factoryAvailableActions(factory, actions);
+					return actions.get(idx);
+				}
+				idx -= num;
+			}
+			throw new IndexOutOfBoundsException(idx);
+		}
+
+		private static boolean isActiveFactory(Building building) {
+			return building.isActive() && building.type.canBuildUnits;
+		}
+
+		private int unitAvailableActionsNum(Unit unit) {
+			int count = 0;
+			int unitPos = unit.getPos();
+			Cell.Bitmap reachable = unit.getReachableMap();
+			switch (unit.type.weapon.type) {
+			case CloseRange:
+				for (Iter.Int it = unit.getAttackableMap().cells(); it.hasNext();)
+					for (Iter.Int nit = Cell.neighbors(it.next()); nit.hasNext();)
+						if (reachable.contains(nit.next()))
+							count++;
+				break;
+			case LongRange:
+				count += unit.getAttackableMap().cardinality();
+				break;
+			case None:
+				break;
+			default:
+				throw new IllegalArgumentException("Unexpected value: " + unit.type.weapon.type);
+			}
+			count += reachable.cardinality() - (reachable.contains(unitPos) ? 1 : 0);
+			for (Unit.Type transport : List.of(Unit.Type.LandingCraft, Unit.Type.TransportPlane))
+				if (unit.canTransported(transport))
+					count++;
+			if (unit.canFinishTransport())
+				count++;
+			if (unit.canRepair())
+				count++;
+			return count;
 		}
 
 		private void unitAvailableActions(Unit unit, List<Action> actions) {
@@ -81,6 +208,14 @@ class GameImpl implements IGame<Action, GameImpl.Node> {
 				actions.add(new Action.UnitRepair(unit.getPos()));
 		}
 
+		private static int factoryAvailableActionsNum(Building factory) {
+			int count = 0;
+			for (Unit.Type type : Unit.Type.values())
+				if (factory.canBuildUnit(type))
+					count++;
+			return count;
+		}
+
 		private static void factoryAvailableActions(Building factory, List<Action> actions) {
 			for (Unit.Type type : Unit.Type.values())
 				if (factory.canBuildUnit(type))
@@ -94,7 +229,7 @@ class GameImpl implements IGame<Action, GameImpl.Node> {
 			for (Iter.Int it = reachable.cells(); it.hasNext();) {
 				int destination = it.next();
 				if (destination != unitPos)
-					actions.add(new Action.UnitMove(unitPos, unit.calcPath(destination)));
+					actions.add(new Action.UnitMove(unitPos, destination));
 			}
 		}
 
@@ -130,7 +265,7 @@ class GameImpl implements IGame<Action, GameImpl.Node> {
 				for (Iter.Int nit = Cell.neighbors(target); nit.hasNext();) {
 					int destination = nit.next();
 					if (reachable.contains(destination))
-						actions.add(new Action.UnitMoveAndAttack(attackerPos, unit.calcPath(destination), target));
+						actions.add(new Action.UnitMoveAndAttack(attackerPos, destination, target));
 				}
 			}
 		}
@@ -1,23 +1,92 @@
 package com.bugav.battalion.computer;
 
+import java.util.concurrent.ForkJoinPool;
+
 import com.bugav.battalion.util.Iter;
 
 class GameTreeAlg {
 
+	/**
+	 * Get the pool shared by all the parallel searches.
+	 *
+	 * The pool is created on first use and is never shut down, its threads are
+	 * daemons. Each search submits at most its parallelism number of tasks.
+	 */
+	static ForkJoinPool searchPool() {
+		return SearchPool.Instance;
+	}
+
+	private static class SearchPool {
+		static final ForkJoinPool Instance = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	/* stable merge sort of the first n indices by descending score */
+	static void sortByScore(int[] idxs, int n, double[] scores, int[] tmp) {
+		for (int width = 1; width < n; width *= 2) {
+			for (int begin = 0; begin < n - width; begin += 2 * width) {
+				int mid = begin + width, end = Math.min(begin + 2 * width, n);
+				if (scores[idxs[mid - 1]] >= scores[idxs[mid]])
+					continue; /* already in order */
+				System.arraycopy(idxs, begin, tmp, begin, end - begin);
+				for (int k = begin, i = begin, j = mid; k < end; k++)
+					idxs[k] = j >= end || (i < mid && scores[tmp[i]] >= scores[tmp[j]]) ? tmp[i++] : tmp[j++];
+			}
+		}
+	}
+
 	interface IGame<Action, Position extends IGame.IPosition<Action>> {
 
 		int getNumberOfPlayers();
 
 		Position getModifiedPosition(Position position, Action action);
 
+		/**
+		 * Create an independent copy of a position, that supports applyAction() and
+		 * undoAction().
+		 */
+		Position copyPosition(Position position);
+
+		/**
+		 * Apply an action on a position in place.
+		 *
+		 * The action can be reverted later by undoAction(), allowing search algorithms
+		 * to explore the game tree using a single mutable position.
+		 */
+		void applyAction(Position position, Action action);
+
+		/**
+		 * Undo the last action applied on a position by applyAction().
+		 */
+		void undoAction(Position position);
+
 		static interface IPosition<Action> {
 
 			boolean isTerminated();
 
 			int getTurn();
 
+			long getHash();
+
 			Iter<Action> availableActions();
 
+			/**
+			 * Get the number of available actions, without creating them.
+			 */
+			int availableActionsNum();
+
+			/**
+			 * Get a single available action, without creating all of them.
+			 *
+			 * @param idx the index of the action in the order of availableActions(), in
+			 *            range [0, availableActionsNum())
+			 */
+			default Action availableAction(int idx) {
+				Iter<Action> actions = availableActions();
+				for (; idx > 0; idx--)
+					actions.next();
+				return actions.next();
+			}
+
 		}
 
 	}
@@ -30,4 +99,41 @@ class GameTreeAlg {
 
 	}
 
+	interface ActionOrdering<Action, Position extends IGame.IPosition<Action>> {
+
+		/**
+		 * Cheap static score of an action, used to search promising actions first.
+		 *
+		 * @return a positive score for tactical actions such as attacks, zero for quiet
+		 *         actions
+		 */
+		double staticScore(Position position, Action action);
+
+		/**
+		 * Key of an action in the history heuristic table.
+		 *
+		 * Best actions of positions are rewarded in the history table, and other
+		 * actions with the same key are searched earlier in other positions.
+		 *
+		 * @return a non negative key, or -1 if the action should not be tracked
+		 */
+		int historyKey(Position position, Action action);
+
+		static <Action, Position extends IGame.IPosition<Action>> ActionOrdering<Action, Position> none() {
+			return new ActionOrdering<>() {
+
+				@Override
+				public double staticScore(Position position, Action action) {
+					return 0;
+				}
+
+				@Override
+				public int historyKey(Position position, Action action) {
+					return -1;
+				}
+			};
+		}
+
+	}
+
 }
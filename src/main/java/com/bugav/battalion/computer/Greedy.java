@@ -1,8 +1,8 @@
 package com.bugav.battalion.computer;
 
+import java.util.List;
 import java.util.Objects;
 
-import com.bugav.battalion.computer.GameImpl.Node;
 import com.bugav.battalion.computer.GameTreeAlg.IGame;
 import com.bugav.battalion.computer.GameTreeAlg.ValueFunction;
 import com.bugav.battalion.computer.GameTreeAlg.IGame.IPosition;
@@ -11,21 +11,40 @@ public class Greedy<Action, Position extends IPosition<Action>, Game extends IGa
 
 	private final Game game;
 	private final ValueFunction<Action, Position, Game> valueFunc;
+	private final SearchStats stats;
 
-	Greedy(Game game, ValueFunction<Action, Position, Game> valueFunc) {
+	Greedy(Game game, ValueFunction<Action, Position, Game> valueFunc, SearchStats stats) {
 		this.game = Objects.requireNonNull(game);
 		this.valueFunc = Objects.requireNonNull(valueFunc);
+		this.stats = Objects.requireNonNull(stats);
 	}
 
-	Action chooseAction(Position position) {
+	/**
+	 * Choose the action with the best evaluation
+	 *
+	 * @param history    the position, which is not modified
+	 * @param position   a copy of the position on which the actions are applied and
+	 *                   undone, created by copyPosition()
+	 * @return the best action, or null if no action is better than the position
+	 */
+	Action chooseAction(Position history, Position position) {
 		final int us = position.getTurn();
 
 		Action bestAction = null;
 		double bestEval = valueFunc.evaluate(position, us);
 
-		for (Action action : position.availableActions().forEach()) {
-			Position child = game.getModifiedPosition(position, action);
-			double val = valueFunc.evaluate(position, action, child, us);
+		long t0 = System.nanoTime();
+		List<Action> actions = position.availableActions().toList();
+		stats.actionsGenerated(System.nanoTime() - t0);
+		stats.nodeExpanded();
+		for (Action action : actions) {
+			game.applyAction(position, action);
+			double val;
+			try {
+				val = valueFunc.evaluate(history, action, position, us);
+			} finally {
+				game.undoAction(position);
+			}
 			if (val > bestEval) {
 				bestEval = val;
 				bestAction = action;
@@ -36,15 +55,33 @@ public class Greedy<Action, Position extends IPosition<Action>, Game extends IGa
 
 	public static class Player implements com.bugav.battalion.computer.Player {
 
+		private final GameImpl game;
 		private final Greedy<com.bugav.battalion.core.Action, GameImpl.Node, GameImpl> algo;
+		private final SearchStats stats = new SearchStats();
+		private volatile SearchStats.Snapshot lastActionStats;
 
 		public Player() {
-			algo = new Greedy<>(new GameImpl(), new ValueFunctionImpl());
+			game = new GameImpl(stats);
+			algo = new Greedy<>(game, new ValueFunctionImpl(stats), stats);
 		}
 
 		@Override
 		public com.bugav.battalion.core.Action chooseAction(com.bugav.battalion.core.Game game) {
-			return algo.chooseAction(new Node(game));
+			SearchStats.Snapshot before = stats.snapshot();
+			com.bugav.battalion.core.Action action = algo.chooseAction(new GameImpl.Node(game),
+					this.game.searchRootOf(game));
+			lastActionStats = stats.snapshot().minus(before);
+			return action;
+		}
+
+		@Override
+		public SearchStats.Snapshot getStats() {
+			return stats.snapshot();
+		}
+
+		@Override
+		public SearchStats.Snapshot getLastActionStats() {
+			return lastActionStats;
 		}
 
 	}
@@ -0,0 +1,333 @@
+package com.bugav.battalion.computer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.bugav.battalion.computer.GameTreeAlg.ActionOrdering;
+import com.bugav.battalion.computer.GameTreeAlg.IGame;
+import com.bugav.battalion.computer.GameTreeAlg.ValueFunction;
+import com.bugav.battalion.computer.GameTreeAlg.IGame.IPosition;
+
+/**
+ * Monte Carlo tree search.
+ *
+ * Unlike the alpha-beta search, the tree contains the turn end action, so the
+ * search can look beyond the current turn. Each iteration selects a leaf using
+ * UCT, expands a single child, performs a short random rollout and
+ * backpropagates the value of the rollout final position. As the number of
+ * actions of a position is huge, children are added to a node gradually as it
+ * is visited more (progressive widening), by the order of the actions static
+ * score. Multiple workers search the same tree concurrently, each on its own
+ * copy of the position, and virtual loss is used to spread them across the
+ * tree.
+ */
+public class MCTS<Action, Position extends IPosition<Action>, Game extends IGame<Action, Position>> {
+
+	private final Game game;
+	private final ValueFunction<Action, Position, Game> valueFunc;
+	private final ActionOrdering<Action, Position> ordering;
+	private final SearchStats stats;
+	private final Action turnEnd;
+	private final int iterationsLimit; /* zero for no limit */
+	private final long timeLimit; /* milliseconds, zero for no limit */
+	private final int parallelism;
+	private final ForkJoinPool pool; /* null for a single worker */
+
+	private static final double ExplorationC = 0.7;
+	private static final double WideningC = 1.5;
+	private static final double WideningExponent = 0.5;
+	private static final int RolloutDepth = 6;
+	private static final double RolloutTurnEndProbability = 0.15;
+	private static final double EvalScale = 25;
+
+	/**
+	 * Create a new MCTS algorithm
+	 *
+	 * @param game            the game
+	 * @param valueFunc       value function used to evaluate the rollouts final
+	 *                        positions
+	 * @param ordering        actions ordering, actions with higher static score are
+	 *                        added to the tree first
+	 * @param turnEnd         the action ending the current turn, which is not part
+	 *                        of the positions available actions
+	 * @param iterationsLimit maximum number of iterations per action, zero for no
+	 *                        limit
+	 * @param timeLimit       milliseconds per action, zero for no limit
+	 * @param parallelism     number of workers searching the tree concurrently
+	 * @param stats           statistics of the search
+	 */
+	MCTS(Game game, ValueFunction<Action, Position, Game> valueFunc, ActionOrdering<Action, Position> ordering,
+			Action turnEnd, int iterationsLimit, long timeLimit, int parallelism, SearchStats stats) {
+		if (iterationsLimit < 0 || timeLimit < 0 || (iterationsLimit == 0 && timeLimit == 0) || parallelism <= 0)
+			throw new IllegalArgumentException();
+		this.game = Objects.requireNonNull(game);
+		this.valueFunc = Objects.requireNonNull(valueFunc);
+		this.ordering = Objects.requireNonNull(ordering);
+		this.turnEnd = Objects.requireNonNull(turnEnd);
+		this.stats = Objects.requireNonNull(stats);
+		this.iterationsLimit = iterationsLimit;
+		this.timeLimit = timeLimit;
+		this.parallelism = parallelism;
+		pool = parallelism > 1 ? GameTreeAlg.searchPool() : null;
+	}
+
+	Action chooseAction(Position position) {
+		Search search = new Search(position);
+		if (pool == null) {
+			search.work(position);
+		} else {
+			List<Callable<Void>> workers = new ArrayList<>(parallelism);
+			for (int i = 0; i < parallelism; i++) {
+				Position workerPosition = i == 0 ? position : game.copyPosition(position);
+				workers.add(() -> {
+					search.work(workerPosition);
+					return null;
+				});
+			}
+			for (Future<Void> f : pool.invokeAll(workers)) {
+				try {
+					f.get();
+				} catch (InterruptedException | ExecutionException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		return search.bestAction();
+	}
+
+	private class TreeNode {
+		final TreeNode parent;
+		final Action action;
+		final int player; /* the player that performed the action leading to this node */
+
+		final List<TreeNode> children = new ArrayList<>();
+		List<Action> untried; /* null until the node is first reached */
+		int nextUntried;
+
+		int visits;
+		int virtualLoss;
+		double value; /* sum of rewards, from the perspective of player */
+
+		TreeNode(TreeNode parent, Action action, int player) {
+			this.parent = parent;
+			this.action = action;
+			this.player = player;
+		}
+
+		boolean canWiden() {
+			int maxChildren = (int) Math.ceil(WideningC * Math.pow(visits + 1, WideningExponent));
+			return nextUntried < untried.size() && children.size() < maxChildren;
+		}
+
+		double uct(double logParentVisits) {
+			/* virtual losses count as visits with zero reward */
+			int n = visits + virtualLoss;
+			if (n == 0)
+				return Double.MAX_VALUE;
+			return value / n + ExplorationC * Math.sqrt(logParentVisits / n);
+		}
+	}
+
+	private class Search {
+
+		private final TreeNode root;
+		private final int us;
+		private final double rootEval;
+		private final AtomicInteger iterations = new AtomicInteger();
+		private final long deadline;
+
+		/*
+		 * Guards the tree structure and statistics. Selection and backpropagation of
+		 * all the workers are serialized by it, while actions are applied, generated
+		 * and evaluated outside of it. Those take most of an iteration, but as the
+		 * parallelism grows the workers spend more time waiting for the lock, and it
+		 * limits the scaling of the search.
+		 */
+		private final Object treeLock = new Object();
+
+		Search(Position position) {
+			us = position.getTurn();
+			root = new TreeNode(null, null, -1);
+			rootEval = valueFunc.evaluate(position, us);
+			deadline = timeLimit != 0 ? System.nanoTime() + timeLimit * 1_000_000 : Long.MAX_VALUE;
+		}
+
+		void work(Position position) {
+			Random rand = ThreadLocalRandom.current();
+			List<TreeNode> path = new ArrayList<>();
+			for (;;) {
+				if (iterationsLimit != 0 && iterations.getAndIncrement() >= iterationsLimit)
+					break;
+				if (System.nanoTime() > deadline)
+					break;
+				path.clear();
+				iteration(position, path, rand);
+			}
+		}
+
+		private void iteration(Position position, List<TreeNode> path, Random rand) {
+			int applied = 0;
+			try {
+				/* selection */
+				synchronized (treeLock) {
+					for (TreeNode node = root;;) {
+						path.add(node);
+						node.virtualLoss++;
+						if (node.untried == null || node.canWiden() || node.children.isEmpty())
+							break;
+						double logVisits = Math.log(node.visits + node.virtualLoss);
+						node = Collections.max(node.children, Comparator.comparingDouble(c -> c.uct(logVisits)));
+					}
+				}
+				for (TreeNode node : path.subList(1, path.size())) {
+					game.applyAction(position, node.action);
+					applied++;
+				}
+
+				/* expansion */
+				TreeNode leaf = path.get(path.size() - 1);
+				if (!position.isTerminated()) {
+					List<Action> actions = leaf.untried == null ? orderedActions(position, rand) : null;
+					TreeNode child = null;
+					synchronized (treeLock) {
+						if (leaf.untried == null)
+							leaf.untried = actions;
+						if (leaf.canWiden()) {
+							child = new TreeNode(leaf, leaf.untried.get(leaf.nextUntried++), position.getTurn());
+							leaf.children.add(child);
+							child.virtualLoss++;
+						}
+					}
+					if (child != null) {
+						path.add(child);
+						game.applyAction(position, child.action);
+						applied++;
+					}
+				}
+
+				/* simulation */
+				for (int i = 0; i < RolloutDepth && !position.isTerminated(); i++) {
+					game.applyAction(position, rolloutAction(position, rand));
+					applied++;
+				}
+				double reward = reward(position);
+
+				/* backpropagation */
+				synchronized (treeLock) {
+					for (TreeNode node : path) {
+						node.virtualLoss--;
+						node.visits++;
+						node.value += node.player == us ? reward : 1 - reward;
+					}
+				}
+			} finally {
+				for (; applied > 0; applied--)
+					game.undoAction(position);
+			}
+		}
+
+		private List<Action> orderedActions(Position position, Random rand) {
+			long t0 = System.nanoTime();
+			List<Action> actions = position.availableActions().toList();
+			stats.actionsGenerated(System.nanoTime() - t0);
+			stats.nodeExpanded();
+			actions.add(turnEnd);
+			Collections.shuffle(actions, rand);
+			int n = actions.size();
+			double[] scores = new double[n];
+			int[] order = new int[n];
+			for (int i = 0; i < n; i++) {
+				scores[i] = ordering.staticScore(position, actions.get(i));
+				order[i] = i;
+			}
+			GameTreeAlg.sortByScore(order, n, scores, new int[n]);
+			List<Action> ordered = new ArrayList<>(n);
+			for (int i = 0; i < n; i++)
+				ordered.add(actions.get(order[i]));
+			return ordered;
+		}
+
+		private Action rolloutAction(Position position, Random rand) {
+			if (rand.nextDouble() < RolloutTurnEndProbability)
+				return turnEnd;
+			/* only the chosen action is created, the others are counted */
+			long t0 = System.nanoTime();
+			try {
+				int actionsNum = position.availableActionsNum();
+				if (actionsNum == 0)
+					return turnEnd;
+				return position.availableAction(rand.nextInt(actionsNum));
+			} finally {
+				stats.actionsGenerated(System.nanoTime() - t0);
+			}
+		}
+
+		/* the reward of a position in [0, 1], from the perspective of the searching player */
+		private double reward(Position position) {
+			double eval = valueFunc.evaluate(position, us);
+			return 1 / (1 + Math.exp(-(eval - rootEval) / EvalScale));
+		}
+
+		Action bestAction() {
+			TreeNode best = null;
+			for (TreeNode child : root.children)
+				if (best == null || child.visits > best.visits)
+					best = child;
+			return best != null ? best.action : null;
+		}
+
+	}
+
+	public static class Player implements com.bugav.battalion.computer.Player {
+
+		private final GameImpl game;
+		private final MCTS<com.bugav.battalion.core.Action, GameImpl.Node, GameImpl> algo;
+		private final SearchStats stats = new SearchStats();
+		private volatile SearchStats.Snapshot lastActionStats;
+
+		/**
+		 * Create a MCTS player
+		 *
+		 * @param iterationsLimit maximum number of iterations per action, zero for no
+		 *                        limit
+		 * @param actionTimeLimit time budget in milliseconds for each chosen action,
+		 *                        zero for no limit
+		 * @param parallelism     number of workers searching concurrently
+		 */
+		public Player(int iterationsLimit, long actionTimeLimit, int parallelism) {
+			game = new GameImpl(stats);
+			algo = new MCTS<>(game, new ValueFunctionImpl(stats), new ActionOrderingImpl(),
+					com.bugav.battalion.core.Action.TurnEnd, iterationsLimit, actionTimeLimit, parallelism, stats);
+		}
+
+		@Override
+		public com.bugav.battalion.core.Action chooseAction(com.bugav.battalion.core.Game game) {
+			SearchStats.Snapshot before = stats.snapshot();
+			com.bugav.battalion.core.Action action = algo.chooseAction(this.game.searchRootOf(game));
+			lastActionStats = stats.snapshot().minus(before);
+			return action;
+		}
+
+		@Override
+		public SearchStats.Snapshot getStats() {
+			return stats.snapshot();
+		}
+
+		@Override
+		public SearchStats.Snapshot getLastActionStats() {
+			return lastActionStats;
+		}
+
+	}
+
+}
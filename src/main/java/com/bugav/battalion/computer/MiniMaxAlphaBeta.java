@@ -1,83 +1,528 @@
 package com.bugav.battalion.computer;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.bugav.battalion.computer.GameImpl.Node;
+import com.bugav.battalion.computer.GameTreeAlg.ActionOrdering;
 import com.bugav.battalion.computer.GameTreeAlg.IGame;
 import com.bugav.battalion.computer.GameTreeAlg.ValueFunction;
 import com.bugav.battalion.computer.GameTreeAlg.IGame.IPosition;
+import com.bugav.battalion.computer.TranspositionTable.Bound;
 
 public class MiniMaxAlphaBeta<Action, Position extends IPosition<Action>, Game extends IGame<Action, Position>> {
 
 	private final Game game;
 	private final int maxDepth;
+	private final long timeLimit; /* milliseconds per action, zero for a fixed depth search */
 	private final ValueFunction<Action, Position, Game> valueFunc;
+	private final ActionOrdering<Action, Position> ordering;
+	private final SearchStats stats;
+	private final TranspositionTable tt = new TranspositionTable(TranspositionTableSize);
+	private final int parallelism;
+	private final ForkJoinPool pool; /* null for a sequential search */
+
+	private static final int TranspositionTableSize = 1 << 18;
+	private static final int TerminalDepth = 0xff; /* depth of terminal positions entries, valid for any depth */
+	private static final int KillersNum = 2;
+	private static final int HistoryTableBits = 14;
+	private static final int HistoryMax = 1 << 20;
+	private static final double PvScore = 1e11;
+	private static final double TTScore = 1e10;
+	private static final double TacticalScore = 1e9;
+	private static final double KillerScore = 1e8;
+
+	/* principal variation of the last completed iteration, read only during a search */
+	private final List<Action> prevPv = new ArrayList<>();
+	private volatile long deadline;
 
 	MiniMaxAlphaBeta(Game game, int maxDepth, ValueFunction<Action, Position, Game> valueFunc) {
+		this(game, maxDepth, 0, 1, valueFunc, ActionOrdering.none(), new SearchStats());
+	}
+
+	/**
+	 * Create a new search algorithm
+	 *
+	 * @param game        the game
+	 * @param maxDepth    maximum search depth
+	 * @param timeLimit   milliseconds per action. If zero, a single search of
+	 *                    maxDepth is performed, otherwise iterative deepening is
+	 *                    used until the time limit is exhausted.
+	 * @param parallelism number of search threads. If greater than one, the value
+	 *                    function must be safe to use from multiple threads.
+	 * @param valueFunc   the position value function
+	 * @param ordering    actions ordering heuristics, used in addition to the
+	 *                    transposition table, killer actions and history heuristic
+	 * @param stats       statistics of the search
+	 */
+	MiniMaxAlphaBeta(Game game, int maxDepth, long timeLimit, int parallelism,
+			ValueFunction<Action, Position, Game> valueFunc, ActionOrdering<Action, Position> ordering,
+			SearchStats stats) {
+		if (maxDepth <= 0 || timeLimit < 0 || parallelism <= 0)
+			throw new IllegalArgumentException();
 		this.game = Objects.requireNonNull(game);
 		this.maxDepth = maxDepth;
+		this.timeLimit = timeLimit;
 		this.valueFunc = Objects.requireNonNull(valueFunc);
+		this.ordering = Objects.requireNonNull(ordering);
+		this.stats = Objects.requireNonNull(stats);
+		this.parallelism = parallelism;
+		pool = parallelism > 1 ? GameTreeAlg.searchPool() : null;
 	}
 
 	Action chooseAction(Position position) {
-		final int us = position.getTurn();
-		double alpha = Double.MAX_VALUE, beta = Double.MAX_VALUE;
+		prevPv.clear();
+		tt.newSearch();
+		Searchers searchers = new Searchers(position);
+		if (timeLimit == 0)
+			return searchRoot(searchers, maxDepth).action;
 
+		/*
+		 * Iterative deepening: search depth 1, 2, 3... until the time budget is
+		 * exhausted. Each iteration searches the principal variation of the previous
+		 * one first, so the partial last iteration is ordered well and the result of
+		 * the last completed iteration is always available. The first iteration is not
+		 * limited by the time budget, so a short budget never skips a turn.
+		 */
+		long timeLimitDeadline = System.nanoTime() + timeLimit * 1_000_000;
 		Action bestAction = null;
-		double bestEval = valueFunc.evaluate(position, us);
-		alpha = Math.max(alpha, bestEval);
-
-		for (Action action : position.availableActions().forEach()) {
-			Position child = game.getModifiedPosition(position, action);
-			double val = evaluate(child, 1, alpha, beta, us);
-			if (val > bestEval) {
-				bestEval = val;
-				bestAction = action;
+		for (int depth = 1; depth <= maxDepth; depth++) {
+			deadline = depth == 1 ? 0 : timeLimitDeadline;
+			RootResult<Action> res;
+			try {
+				res = searchRoot(searchers, depth);
+			} catch (SearchTimeout e) {
+				/*
+				 * The previous iteration best action is searched first, so the best action of
+				 * the partial iteration is at least as good as it in the deeper search
+				 */
+				if (e.bestAction() != null)
+					bestAction = e.bestAction();
+				break;
 			}
-			alpha = Math.max(alpha, val);
+			bestAction = res.action;
+			if (!res.depthLimitReached)
+				break; /* the whole tree was searched, deeper iterations will not change the result */
+			prevPv.clear();
+			prevPv.addAll(res.pv);
 		}
+		deadline = 0;
 		return bestAction;
 	}
 
-	private double evaluate(Position position, int depth, double alpha, double beta, final int us) {
-		if (depth == maxDepth || position.isTerminated())
-			return valueFunc.evaluate(position, us);
-		if (position.getTurn() == us) {
+	private RootResult<Action> searchRoot(Searchers searchers, int depthLimit) {
+		Searcher main = searchers.main;
+		Position position = main.position;
+		final int us = position.getTurn();
+
+		long key = positionKey(position, us);
+		List<Action> actions = availableActions(position);
+		int ttAction = tt.probe(key, main.ttEntry) ? main.ttEntry.bestAction() : TranspositionTable.NoAction;
+		List<Action> ordered = main.orderedActions(actions, ttAction, 0, true);
+		RootResult<Action> res = new RootResult<>(valueFunc.evaluate(position, us));
+
+		/*
+		 * Young Brothers Wait: the eldest brother (the PV or TT action) is searched by
+		 * a single thread to establish a good alpha bound, and only then the younger
+		 * brothers are searched in parallel, each reading the latest root alpha. Only
+		 * the root children are searched in parallel, parallelism workers take them one
+		 * by one.
+		 */
+		int sequentialNum = pool == null ? ordered.size() : Math.min(1, ordered.size());
+		for (Action action : ordered.subList(0, sequentialNum)) {
+			try {
+				main.searchRootChild(res, action, depthLimit, us);
+			} catch (SearchTimeout e) {
+				throw new SearchTimeout(res.action);
+			}
+		}
+		List<Action> youngerBrothers = ordered.subList(sequentialNum, ordered.size());
+		if (!youngerBrothers.isEmpty()) {
+			AtomicInteger next = new AtomicInteger();
+			int workersNum = Math.min(parallelism, youngerBrothers.size());
+			List<Callable<Void>> workers = new ArrayList<>(workersNum);
+			for (int w = 0; w < workersNum; w++) {
+				workers.add(() -> {
+					Searcher searcher = searchers.acquire();
+					try {
+						for (int i; !res.timeout && (i = next.getAndIncrement()) < youngerBrothers.size();)
+							searcher.searchRootChild(res, youngerBrothers.get(i), depthLimit, us);
+					} catch (SearchTimeout e) {
+						res.timeout = true;
+					} finally {
+						searchers.release(searcher);
+					}
+					return null;
+				});
+			}
+			for (Future<Void> f : pool.invokeAll(workers)) {
+				try {
+					f.get();
+				} catch (InterruptedException | ExecutionException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			if (res.timeout)
+				throw new SearchTimeout(res.action);
+		}
+
+		tt.store(key, depthLimit, Bound.Exact, res.eval, actionIdx(actions, res.action));
+		return res;
+	}
+
+	/* Root search result, shared by all the threads searching the root children */
+	private static class RootResult<Action> {
+		Action action;
+		double eval;
+		final List<Action> pv = new ArrayList<>();
+		boolean depthLimitReached;
+		volatile boolean timeout;
+
+		RootResult(double staticEval) {
+			eval = staticEval;
+		}
+
+		synchronized double alpha() {
+			return eval;
+		}
+
+		synchronized void update(Action action, double val, Object[] childPv, int childPvLength,
+				boolean depthLimitReached) {
+			this.depthLimitReached |= depthLimitReached;
+			if (val <= eval)
+				return;
+			eval = val;
+			this.action = action;
+			pv.clear();
+			pv.add(action);
+			for (int i = 1; i < childPvLength; i++) {
+				@SuppressWarnings("unchecked")
+				Action a = (Action) childPv[i];
+				pv.add(a);
+			}
+		}
+	}
+
+	/* Searchers pool, each searcher is used by a single thread at a time */
+	private class Searchers {
+		final Searcher main;
+		private final Position root;
+		private final Queue<Searcher> idle = new ConcurrentLinkedQueue<>();
+
+		Searchers(Position root) {
+			this.root = root;
+			main = new Searcher(root);
+		}
+
+		Searcher acquire() {
+			Searcher searcher = idle.poll();
+			return searcher != null ? searcher : new Searcher(game.copyPosition(root));
+		}
+
+		void release(Searcher searcher) {
+			idle.add(searcher);
+		}
+	}
+
+	private class Searcher {
+
+		final Position position;
+		private int depthLimit;
+		private boolean depthLimitReached;
+
+		/* principal variation table, pvTable[depth] is the best line found from depth */
+		private final Object[][] pvTable = new Object[maxDepth + 1][maxDepth + 1];
+		private final int[] pvLength = new int[maxDepth + 1];
+
+		/* killer actions, best quiet actions of other positions at the same depth */
+		private final Object[][] killers = new Object[maxDepth + 1][KillersNum];
+		/* history heuristic, how often actions of the same key were the best, weighted by depth */
+		private final int[] history = new int[1 << HistoryTableBits];
+		/* the probed entry, read before the children are searched */
+		private final TranspositionTable.Entry ttEntry = new TranspositionTable.Entry();
+
+		/* ordering buffers, one per depth as the ordered actions of a depth are used during its children search */
+		private final double[][] scoresBuf = new double[maxDepth + 1][];
+		private final int[][] orderBuf = new int[maxDepth + 1][];
+		private final List<List<Action>> orderedBuf = new ArrayList<>(maxDepth + 1);
+		private int[] sortTmp = new int[0];
+
+		Searcher(Position position) {
+			this.position = Objects.requireNonNull(position);
+			for (int depth = 0; depth <= maxDepth; depth++)
+				orderedBuf.add(new ArrayList<>());
+		}
+
+		void searchRootChild(RootResult<Action> res, Action action, int depthLimit, int us) {
+			this.depthLimit = depthLimit;
+			depthLimitReached = false;
+			double alpha = res.alpha();
+
+			game.applyAction(position, action);
+			double val;
+			try {
+				val = evaluate(1, alpha, us, action.equals(pvMove(0)));
+			} finally {
+				game.undoAction(position);
+			}
+			res.update(action, val, pvTable[1], pvLength[1], depthLimitReached);
+		}
+
+		/*
+		 * The available actions never end the turn, so all the positions of the tree
+		 * are of our turn. The search is a maximization, bounded from below by the
+		 * root alpha, and there are no beta cutoffs.
+		 */
+		private double evaluate(int depth, double alpha, final int us, boolean onPv) {
+			pvLength[depth] = depth;
+			if (deadline != 0 && System.nanoTime() > deadline)
+				throw new SearchTimeout(null);
+
+			long key = positionKey(position, us);
+			int ttAction = TranspositionTable.NoAction;
+			if (tt.probe(key, ttEntry)) {
+				ttAction = ttEntry.bestAction();
+				double v = ttEntry.value();
+				Bound bound = ttEntry.bound();
+				if (ttEntry.depth() >= depthLimit - depth
+						&& (bound == Bound.Exact || (bound == Bound.Upper && v <= alpha))) {
+					stats.cutoff(depth);
+					if (ttEntry.depth() != TerminalDepth)
+						depthLimitReached = true; /* the stored subtree was cut by a depth limit */
+					return v;
+				}
+			}
+
+			if (position.isTerminated()) {
+				double val = valueFunc.evaluate(position, us);
+				tt.store(key, TerminalDepth, Bound.Exact, val, TranspositionTable.NoAction);
+				return val;
+			}
+			if (depth == depthLimit) {
+				depthLimitReached = true;
+				double val = valueFunc.evaluate(position, us);
+				tt.store(key, 0, Bound.Exact, val, TranspositionTable.NoAction);
+				return val;
+			}
+			Action pvMove = onPv ? pvMove(depth) : null;
+			List<Action> actions = availableActions(position);
+			final double alphaOrig = alpha;
+			Action bestAction = null;
 			double val = -Double.MAX_VALUE;
-			for (Action action : position.availableActions().forEach()) {
-				Position child = game.getModifiedPosition(position, action);
-				val = Math.max(val, evaluate(child, depth + 1, alpha, beta, us));
-				if (val > beta)
-					break;
+			for (Action action : orderedActions(actions, ttAction, depth, onPv)) {
+				double childVal = evaluateChild(action, depth, alpha, us, action.equals(pvMove));
+				if (childVal > val) {
+					val = childVal;
+					bestAction = action;
+					updatePv(depth, action);
+				}
 				alpha = Math.max(alpha, val);
 			}
+			Bound bound = val <= alphaOrig ? Bound.Upper : Bound.Exact;
+			if (bestAction != null && timeLimit != 0)
+				recordBestAction(depth, bestAction);
+			tt.store(key, depthLimit - depth, bound, val, actionIdx(actions, bestAction));
 			return val;
-		} else {
-			double val = Double.MAX_VALUE;
-			for (Action action : position.availableActions().forEach()) {
-				Position child = game.getModifiedPosition(position, action);
-				val = Math.min(val, evaluate(child, depth + 1, alpha, beta, us));
-				if (val < alpha)
-					break;
-				beta = Math.min(beta, val);
+		}
+
+		private double evaluateChild(Action action, int depth, double alpha, int us, boolean onPv) {
+			game.applyAction(position, action);
+			try {
+				return evaluate(depth + 1, alpha, us, onPv);
+			} finally {
+				game.undoAction(position);
 			}
-			return val;
+		}
+
+		List<Action> orderedActions(List<Action> actions, int ttAction, int depth, boolean onPv) {
+			/*
+			 * The game tree has no opponent turns, so there are no beta cutoffs and the
+			 * order matters only for the partial last iteration of iterative deepening,
+			 * which may be cut by the time limit. A fixed depth search uses the actions
+			 * as is.
+			 */
+			if (timeLimit == 0)
+				return actions;
+
+			/*
+			 * The PV action and the transposition table best action are searched first,
+			 * then tactical actions (attacks, conquers) by their static score, then the
+			 * killer actions, and the rest by their history score.
+			 */
+			int n = actions.size();
+			if (scoresBuf[depth] == null || scoresBuf[depth].length < n) {
+				int capacity = Math.max(n, 16);
+				scoresBuf[depth] = new double[capacity];
+				orderBuf[depth] = new int[capacity];
+			}
+			double[] scores = scoresBuf[depth];
+			int[] order = orderBuf[depth];
+			Action pvMove = onPv ? pvMove(depth) : null;
+			for (int i = 0; i < n; i++) {
+				Action action = actions.get(i);
+				double staticScore;
+				if (action.equals(pvMove)) {
+					scores[i] = PvScore;
+				} else if (i == ttAction) {
+					scores[i] = TTScore;
+				} else if ((staticScore = ordering.staticScore(position, action)) > 0) {
+					scores[i] = TacticalScore + staticScore;
+				} else if (action.equals(killers[depth][0])) {
+					scores[i] = KillerScore + 1;
+				} else if (action.equals(killers[depth][1])) {
+					scores[i] = KillerScore;
+				} else {
+					int historyKey = ordering.historyKey(position, action);
+					scores[i] = historyKey >= 0 ? history[historyIdx(historyKey)] : 0;
+				}
+				order[i] = i;
+			}
+			if (sortTmp.length < n)
+				sortTmp = new int[order.length];
+			GameTreeAlg.sortByScore(order, n, scores, sortTmp);
+
+			List<Action> ordered = orderedBuf.get(depth);
+			ordered.clear();
+			for (int i = 0; i < n; i++)
+				ordered.add(actions.get(order[i]));
+			return ordered;
+		}
+
+		private void recordBestAction(int depth, Action action) {
+			if (ordering.staticScore(position, action) > 0)
+				return; /* tactical actions are searched early anyway */
+			if (!action.equals(killers[depth][0])) {
+				killers[depth][1] = killers[depth][0];
+				killers[depth][0] = action;
+			}
+			int historyKey = ordering.historyKey(position, action);
+			if (historyKey >= 0) {
+				int idx = historyIdx(historyKey);
+				int remainingDepth = depthLimit - depth;
+				history[idx] += remainingDepth * remainingDepth;
+				if (history[idx] > HistoryMax)
+					for (int i = 0; i < history.length; i++)
+						history[i] /= 2;
+			}
+		}
+
+		private void updatePv(int depth, Action action) {
+			pvTable[depth][depth] = action;
+			int childLength = pvLength[depth + 1];
+			for (int i = depth + 1; i < childLength; i++)
+				pvTable[depth][i] = pvTable[depth + 1][i];
+			pvLength[depth] = childLength;
+		}
+
+	}
+
+	private List<Action> availableActions(Position position) {
+		long t0 = System.nanoTime();
+		List<Action> actions = position.availableActions().toList();
+		stats.actionsGenerated(System.nanoTime() - t0);
+		stats.nodeExpanded();
+		return actions;
+	}
+
+	private static long positionKey(IPosition<?> position, int us) {
+		return position.getHash() + us * 0x9e3779b97f4a7c15L;
+	}
+
+	private static <Action> int actionIdx(List<Action> actions, Action action) {
+		return action != null ? actions.indexOf(action) : TranspositionTable.NoAction;
+	}
+
+	private static int historyIdx(int key) {
+		return (key * 0x9e3779b1) >>> (32 - HistoryTableBits);
+	}
+
+	private Action pvMove(int depth) {
+		return depth < prevPv.size() ? prevPv.get(depth) : null;
+	}
+
+	/**
+	 * The exception is used to 'exit' from the current search when the time budget
+	 * of an action is exhausted, carrying the best root action found so far.
+	 */
+	private static class SearchTimeout extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		private final transient Object bestAction;
+
+		SearchTimeout(Object bestAction) {
+			super(null, null, false, false);
+			this.bestAction = bestAction;
+		}
+
+		@SuppressWarnings("unchecked")
+		<Action> Action bestAction() {
+			return (Action) bestAction;
 		}
 	}
 
 	public static class Player implements com.bugav.battalion.computer.Player {
 
+		private final GameImpl game;
 		private final MiniMaxAlphaBeta<com.bugav.battalion.core.Action, GameImpl.Node, GameImpl> algo;
+		private final SearchStats stats = new SearchStats();
+		private volatile SearchStats.Snapshot lastActionStats;
 
-		private final int DepthLimit = 2;
+		private static final int DepthLimit = 2;
+		private static final int IterativeDeepeningDepthLimit = 32;
 
 		public Player() {
-			algo = new MiniMaxAlphaBeta<>(new GameImpl(), DepthLimit, new ValueFunctionImpl());
+			game = new GameImpl(stats);
+			algo = new MiniMaxAlphaBeta<>(game, DepthLimit, 0, 1, new ValueFunctionImpl(stats),
+					new ActionOrderingImpl(), stats);
+		}
+
+		/**
+		 * Create a player that use iterative deepening search
+		 *
+		 * @param actionTimeLimit time budget in milliseconds for each chosen action. The
+		 *                        search goes deeper as long as the budget allows and
+		 *                        return the best action of the last completed depth.
+		 */
+		public Player(long actionTimeLimit) {
+			this(actionTimeLimit, 1);
+		}
+
+		/**
+		 * Create a player that use parallel iterative deepening search
+		 *
+		 * @param actionTimeLimit time budget in milliseconds for each chosen action
+		 * @param parallelism     number of search threads
+		 */
+		public Player(long actionTimeLimit, int parallelism) {
+			if (actionTimeLimit <= 0)
+				throw new IllegalArgumentException();
+			game = new GameImpl(stats);
+			algo = new MiniMaxAlphaBeta<>(game, IterativeDeepeningDepthLimit, actionTimeLimit, parallelism,
+					new ValueFunctionImpl(stats), new ActionOrderingImpl(), stats);
 		}
 
 		@Override
 		public com.bugav.battalion.core.Action chooseAction(com.bugav.battalion.core.Game game) {
-			return algo.chooseAction(new Node(game));
+			SearchStats.Snapshot before = stats.snapshot();
+			com.bugav.battalion.core.Action action = algo.chooseAction(this.game.searchRootOf(game));
+			lastActionStats = stats.snapshot().minus(before);
+			return action;
+		}
+
+		@Override
+		public SearchStats.Snapshot getStats() {
+			return stats.snapshot();
+		}
+
+		@Override
+		public SearchStats.Snapshot getLastActionStats() {
+			return lastActionStats;
 		}
 
 	}
@@ -12,6 +12,26 @@ public interface Player {
 
 	Action chooseAction(Game game);
 
+	/**
+	 * Get the statistics of all the searches performed by the player
+	 *
+	 * @return cumulative search statistics, or null if the player doesn't collect
+	 *         statistics
+	 */
+	default SearchStats.Snapshot getStats() {
+		return null;
+	}
+
+	/**
+	 * Get the statistics of the search of the last chosen action
+	 *
+	 * @return search statistics of the last chooseAction() call, or null if the
+	 *         player doesn't collect statistics or didn't choose an action yet
+	 */
+	default SearchStats.Snapshot getLastActionStats() {
+		return null;
+	}
+
 	public static class Random implements Player {
 
 		private final java.util.Random rand = new java.util.Random();
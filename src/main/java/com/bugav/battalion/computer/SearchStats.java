@@ -0,0 +1,163 @@
+package com.bugav.battalion.computer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.bugav.battalion.util.Cache;
+
+/**
+ * Statistics of the searches of a computer player.
+ *
+ * The counters are striped (LongAdder), so multiple search threads update them
+ * without contention and the statistics can be collected at all times. A
+ * snapshot of the counters can be taken at any time, and the statistics of a
+ * single search are the difference between the snapshots before and after it.
+ * The attack plans hits and misses are read from the statistics of the value
+ * function cache.
+ */
+public class SearchStats {
+
+	/* transposition table cutoffs of deeper plies are counted in the last ply */
+	static final int MaxPly = 32;
+
+	private final LongAdder nodesExpanded = new LongAdder();
+	private final LongAdder leafEvaluations = new LongAdder();
+	private final LongAdder[] cutoffs = new LongAdder[MaxPly];
+	private volatile Cache.ConcurrentLRU<?, ?> attackPlansCache;
+	private final LongAdder ssspInvocations = new LongAdder();
+	private final LongAdder gameCopies = new LongAdder();
+	/* nanoseconds */
+	private final LongAdder generationTime = new LongAdder();
+	private final LongAdder evaluationTime = new LongAdder();
+	private final LongAdder copyTime = new LongAdder();
+
+	SearchStats() {
+		for (int i = 0; i < MaxPly; i++)
+			cutoffs[i] = new LongAdder();
+	}
+
+	void nodeExpanded() {
+		nodesExpanded.increment();
+	}
+
+	void cutoff(int ply) {
+		cutoffs[Math.min(ply, MaxPly - 1)].increment();
+	}
+
+	void actionsGenerated(long time) {
+		generationTime.add(time);
+	}
+
+	void evaluated(long time) {
+		leafEvaluations.increment();
+		evaluationTime.add(time);
+	}
+
+	void setAttackPlansCache(Cache.ConcurrentLRU<?, ?> cache) {
+		attackPlansCache = cache;
+	}
+
+	void ssspInvocation() {
+		ssspInvocations.increment();
+	}
+
+	void gameCopied(long time) {
+		gameCopies.increment();
+		copyTime.add(time);
+	}
+
+	public Snapshot snapshot() {
+		long[] cutoffsSnapshot = new long[MaxPly];
+		for (int i = 0; i < MaxPly; i++)
+			cutoffsSnapshot[i] = cutoffs[i].sum();
+		Cache.ConcurrentLRU<?, ?> plansCache = attackPlansCache;
+		long plansHits = 0, plansMisses = 0;
+		if (plansCache != null) {
+			Cache.Stats plans = plansCache.stats();
+			plansHits = plans.hits;
+			plansMisses = plans.misses;
+		}
+		return new Snapshot(nodesExpanded.sum(), leafEvaluations.sum(), cutoffsSnapshot, plansHits, plansMisses,
+				ssspInvocations.sum(), gameCopies.sum(),
+				generationTime.sum(), evaluationTime.sum(), copyTime.sum());
+	}
+
+	public static class Snapshot {
+
+		public final long nodesExpanded;
+		public final long leafEvaluations;
+		private final long[] cutoffs;
+		public final long attackPlansHits;
+		public final long attackPlansMisses;
+		public final long ssspInvocations;
+		public final long gameCopies;
+		/* nanoseconds */
+		public final long generationTime;
+		public final long evaluationTime;
+		public final long copyTime;
+
+		private Snapshot(long nodesExpanded, long leafEvaluations, long[] cutoffs, long attackPlansHits,
+				long attackPlansMisses, long ssspInvocations, long gameCopies, long generationTime,
+				long evaluationTime, long copyTime) {
+			this.nodesExpanded = nodesExpanded;
+			this.leafEvaluations = leafEvaluations;
+			this.cutoffs = cutoffs;
+			this.attackPlansHits = attackPlansHits;
+			this.attackPlansMisses = attackPlansMisses;
+			this.ssspInvocations = ssspInvocations;
+			this.gameCopies = gameCopies;
+			this.generationTime = generationTime;
+			this.evaluationTime = evaluationTime;
+			this.copyTime = copyTime;
+		}
+
+		/**
+		 * Get the number of cutoffs at a given ply
+		 *
+		 * The searched trees have no opponent turns, so the only cutoffs are of
+		 * positions whose value is already bounded by the transposition table.
+		 *
+		 * @param ply the distance from the searched root, cutoffs deeper than the
+		 *            maximum ply are counted in it
+		 * @return number of cutoffs at the ply
+		 */
+		public long cutoffs(int ply) {
+			return cutoffs[Math.min(ply, MaxPly - 1)];
+		}
+
+		public long cutoffs() {
+			return Arrays.stream(cutoffs).sum();
+		}
+
+		/**
+		 * Get the statistics collected between two snapshots
+		 *
+		 * @param earlier a snapshot of the same statistics taken before this one
+		 * @return the difference between this snapshot and the earlier one
+		 */
+		public Snapshot minus(Snapshot earlier) {
+			long[] c = new long[MaxPly];
+			for (int i = 0; i < MaxPly; i++)
+				c[i] = cutoffs[i] - earlier.cutoffs[i];
+			return new Snapshot(nodesExpanded - earlier.nodesExpanded, leafEvaluations - earlier.leafEvaluations, c,
+					attackPlansHits - earlier.attackPlansHits, attackPlansMisses - earlier.attackPlansMisses,
+					ssspInvocations - earlier.ssspInvocations, gameCopies - earlier.gameCopies,
+					generationTime - earlier.generationTime, evaluationTime - earlier.evaluationTime,
+					copyTime - earlier.copyTime);
+		}
+
+		@Override
+		public String toString() {
+			int plies = MaxPly;
+			while (plies > 0 && cutoffs[plies - 1] == 0)
+				plies--;
+			return "nodes=" + nodesExpanded + " leaves=" + leafEvaluations + " cutoffs="
+					+ Arrays.toString(Arrays.copyOf(cutoffs, plies)) + " attackPlans=" + attackPlansHits + "/"
+					+ (attackPlansHits + attackPlansMisses) + " sssp=" + ssspInvocations + " copies=" + gameCopies
+					+ " time(gen/eval/copy)=" + generationTime / 1_000_000 + "/" + evaluationTime / 1_000_000 + "/"
+					+ copyTime / 1_000_000 + "ms";
+		}
+
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.bugav.battalion.computer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, lock-free transposition table.
+ *
+ * Each entry is three longs: the key XORed with the other two words, the data
+ * and the value bits. A reader verifies the key by XORing the words back, so an
+ * entry torn by concurrent writers is simply treated as a miss and no locking is
+ * required. The data word packs the searched depth, the bound type, the index
+ * of the best action within the position actions list and the search
+ * generation in which the entry was stored.
+ *
+ * Entries of previous searches (generations) are still used, but are always
+ * replaced by new ones, so the table does not fill up with old deep entries.
+ */
+class TranspositionTable {
+
+	enum Bound {
+		Exact, Lower, Upper
+	}
+
+	private final AtomicLongArray table;
+	private final int mask;
+	private volatile int generation;
+
+	private static final long ValidBit = 1L << 63;
+	private static final int DepthShift = 0;
+	private static final long DepthMask = 0xff;
+	private static final int BoundShift = 8;
+	private static final long BoundMask = 0x3;
+	private static final int ActionShift = 10;
+	private static final long ActionMask = 0xffff;
+	private static final int GenerationShift = 26;
+	private static final long GenerationMask = 0xff;
+
+	static final int NoAction = (int) ActionMask;
+
+	TranspositionTable(int size) {
+		if (size <= 0 || Integer.bitCount(size) != 1)
+			throw new IllegalArgumentException("size must be a power of two: " + size);
+		table = new AtomicLongArray(size * 3);
+		mask = size - 1;
+	}
+
+	/**
+	 * Search for an entry of a position
+	 *
+	 * @param key   the hash of the position
+	 * @param entry output entry, filled if an entry of the position exists
+	 * @return true if an entry of the position exists
+	 */
+	boolean probe(long key, Entry entry) {
+		int idx = index(key);
+		long data = table.get(idx + 1);
+		long valueBits = table.get(idx + 2);
+		long check = table.get(idx);
+		if ((check ^ data ^ valueBits) != key || data == 0)
+			return false;
+		entry.data = data;
+		entry.value = Double.longBitsToDouble(valueBits);
+		return true;
+	}
+
+	void store(long key, int depth, Bound bound, double value, int bestAction) {
+		int idx = index(key);
+		long oldData = table.get(idx + 1);
+		if ((table.get(idx) ^ oldData ^ table.get(idx + 2)) == key && depth(oldData) > depth
+				&& generation(oldData) == (generation & GenerationMask))
+			return; /* keep the deeper entry of the same position */
+
+		long data = ValidBit;
+		data |= (Math.min(depth, DepthMask) & DepthMask) << DepthShift;
+		data |= (bound.ordinal() & BoundMask) << BoundShift;
+		data |= (Math.min(bestAction, NoAction) & ActionMask) << ActionShift;
+		data |= (generation & GenerationMask) << GenerationShift;
+		long valueBits = Double.doubleToRawLongBits(value);
+		table.set(idx, key ^ data ^ valueBits);
+		table.set(idx + 1, data);
+		table.set(idx + 2, valueBits);
+	}
+
+	/* Start a new search, the entries of previous searches are replaced by new ones */
+	void newSearch() {
+		generation++;
+	}
+
+	void clear() {
+		for (int i = 0; i < table.length(); i++)
+			table.set(i, 0);
+	}
+
+	private int index(long key) {
+		return ((int) (key ^ (key >>> 32)) & mask) * 3;
+	}
+
+	private static int depth(long data) {
+		return (int) ((data >>> DepthShift) & DepthMask);
+	}
+
+	private static int generation(long data) {
+		return (int) ((data >>> GenerationShift) & GenerationMask);
+	}
+
+	static class Entry {
+		private long data;
+		private double value;
+
+		int depth() {
+			return TranspositionTable.depth(data);
+		}
+
+		Bound bound() {
+			return Bound.values()[(int) ((data >>> BoundShift) & BoundMask)];
+		}
+
+		int bestAction() {
+			return (int) ((data >>> ActionShift) & ActionMask);
+		}
+
+		double value() {
+			return value;
+		}
+	}
+
+}
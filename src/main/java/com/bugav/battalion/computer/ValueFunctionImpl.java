@@ -1,11 +1,15 @@
 package com.bugav.battalion.computer;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumMap;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.IntPredicate;
 
 import com.bugav.battalion.computer.GameImpl.Node;
@@ -17,19 +21,67 @@ import com.bugav.battalion.core.Team;
 import com.bugav.battalion.core.Terrain;
 import com.bugav.battalion.core.Unit;
 import com.bugav.battalion.util.Cache;
-import com.bugav.battalion.util.Graph;
-import com.bugav.battalion.util.GraphArrayDirected;
+import com.bugav.battalion.util.GraphCSR;
 import com.bugav.battalion.util.Iter;
-import com.bugav.battalion.util.SSSP;
-import com.bugav.battalion.util.SSSPDial1969;
+import com.bugav.battalion.util.ListInt;
+import com.bugav.battalion.util.SSSPDialCSR;
 
 class ValueFunctionImpl implements GameTreeAlg.ValueFunction<Action, GameImpl.Node, GameImpl> {
 
-	private final Cache<Game, AttackPlans> attackPlansCache = new Cache.FixSize<>(100);
+	/*
+	 * keyed by the game Zobrist hash, as search algorithms modify a single game
+	 * object in place. The value function may be used by multiple search threads,
+	 * AttackPlans creation is cheap and the expensive plans are computed lazily.
+	 * Weighted by the plans memory, which is proportional to the board size.
+	 */
+	private final Cache.ConcurrentLRU<Long, AttackPlans> attackPlansCache = new Cache.ConcurrentLRU<>(1 << 18,
+			plans -> plans.width * plans.height);
+	/*
+	 * keyed by the terrains identity of a game, shared by all its copies and by all
+	 * the value functions, so the players of a game and consecutive searches reuse
+	 * the same fields. Weak keys, as the terrains are discarded with the game.
+	 */
+	private static final Map<Object, TerrainDistances> terrainDistancesCache = Collections
+			.synchronizedMap(new WeakHashMap<>());
+
+	/*
+	 * Search algorithms apply and undo actions on a single game object per
+	 * position, so in incremental mode each position has an evaluator listening to
+	 * its game changes, re-evaluating only the entities affected by them. Weak
+	 * keys, as the positions are discarded after each search.
+	 */
+	private final boolean incremental;
+	private final SearchStats stats;
+	private final Map<Node, IncrementalPositionEvaluator> incrementalEvaluators = Collections
+			.synchronizedMap(new WeakHashMap<>());
 
 	private static final double Aggression = 0.95;
 
 	ValueFunctionImpl() {
+		this(new SearchStats());
+	}
+
+	ValueFunctionImpl(SearchStats stats) {
+		this(true, stats);
+	}
+
+	ValueFunctionImpl(boolean incremental) {
+		this(incremental, new SearchStats());
+	}
+
+	/**
+	 * Create a new value function
+	 *
+	 * @param incremental if true, the position evaluation is maintained
+	 *                    incrementally from the changes of each position game,
+	 *                    otherwise the whole position is evaluated from scratch
+	 *                    each time
+	 * @param stats       statistics of the evaluations
+	 */
+	ValueFunctionImpl(boolean incremental, SearchStats stats) {
+		this.incremental = incremental;
+		this.stats = Objects.requireNonNull(stats);
+		stats.setAttackPlansCache(attackPlansCache);
 		checkParams();
 	}
 
@@ -39,17 +91,45 @@ class ValueFunctionImpl implements GameTreeAlg.ValueFunction<Action, GameImpl.No
 	}
 
 	@Override
-	public double evaluate(Node history, Action action, Node position, int us0) {
-		Team us = GameImpl.turnIntToObj(us0);
+	public double evaluate(Node history, Action action, Node position, int us) {
+		long t0 = System.nanoTime();
+		try {
+			return evaluate0(history, position, GameImpl.turnIntToObj(us));
+		} finally {
+			stats.evaluated(System.nanoTime() - t0);
+		}
+	}
+
+	private double evaluate0(Node history, Node position, Team us) {
 		if (position.game.isFinished())
 			return position.game.getWinner() == us ? Double.MAX_VALUE : -Double.MAX_VALUE;
 		Game plansPosition = (history != null ? history : position).game;
-		AttackPlans attackPlans = attackPlansCache.getOrCompute(plansPosition, AttackPlans::new);
+		AttackPlans attackPlans = attackPlansCache.getOrCompute(Long.valueOf(plansPosition.getZobristHash()),
+				k -> new AttackPlans(plansPosition, terrainDistances(plansPosition), stats));
 		double actionEval = new ActionEvaluator(attackPlans, position, us).evaluate();
-		double[] positionEvals = new PositionEvaluator(position).evaluate();
+		double[] positionEvals;
+		if (incremental) {
+			positionEvals = incrementalEvaluators
+					.computeIfAbsent(position, p -> new IncrementalPositionEvaluator(p.game)).evaluate(position.game);
+			assert evalsEqual(positionEvals, new PositionEvaluator(position).evaluate());
+		} else {
+			positionEvals = new PositionEvaluator(position).evaluate();
+		}
 		return actionEval + evalFromTeamEvals(us, positionEvals);
 	}
 
+	private static TerrainDistances terrainDistances(Game game) {
+		return terrainDistancesCache.computeIfAbsent(game.getTerrainsKey(),
+				k -> new TerrainDistances(Cell.Array.fromFunc(game.width(), game.height(), game::terrain)));
+	}
+
+	private static boolean evalsEqual(double[] evals1, double[] evals2) {
+		for (int i = 0; i < evals1.length; i++)
+			if (Math.abs(evals1[i] - evals2[i]) > 1e-6 * Math.max(1, Math.abs(evals2[i])))
+				return false;
+		return true;
+	}
+
 	private static double evalFromTeamEvals(Team us, double[]... evals0) {
 		double[] evals = new double[Team.values().length];
 		for (double[] e : evals0)
@@ -77,31 +157,23 @@ class ValueFunctionImpl implements GameTreeAlg.ValueFunction<Action, GameImpl.No
 
 		private final Game game;
 
-		private final Units Units;
+		private final Units units;
 
 		PositionEvaluator(Node position) {
 			this.game = position.game;
-			Units = new Units();
+			units = new Units();
 		}
 
 		double[] evaluate() {
 			double[] evals = new double[Team.values().length];
 			for (Unit unit : game.units().forEach())
-				evals[unit.getTeam().ordinal()] += Units.eval(unit);
+				evals[unit.getTeam().ordinal()] += units.eval(unit);
 
-			for (Building building : game.buildings().forEach()) {
-				double buildingEval = Buildings.eval(building);
-				if (building.getTeam() != null)
-					evals[building.getTeam().ordinal()] += buildingEval;
-				Team conquerTeam = building.getConquerTeam();
-				if (conquerTeam != null)
-					evals[conquerTeam.ordinal()] += buildingEval * building.getConquerProgress();
-			}
+			for (Building building : game.buildings().forEach())
+				Buildings.eval(game, building, evals);
 
-			for (Team team : Team.values()) {
-				int money = game.getMoney(team);
-				evals[team.ordinal()] += 0.2 * Math.pow(money, 4.0 / 5.0);
-			}
+			for (Team team : Team.values())
+				evals[team.ordinal()] += moneyEval(game.getMoney(team));
 
 			for (Team team : Team.values())
 				assert evals[team.ordinal()] >= 0;
@@ -121,19 +193,24 @@ class ValueFunctionImpl implements GameTreeAlg.ValueFunction<Action, GameImpl.No
 
 			Units() {
 				for (Team team : Team.values()) {
-					List<Cell.Bitmap> attackable = game.enemiesSeenBy(team).map(Unit::getAttackableMap).toList();
-					IntPredicate isVulnerable = cell -> Iter.of(attackable).mapBool(m -> m.contains(cell)).any();
-					vulnerable.put(team, Cell.Bitmap.fromPredicate(game.width(), game.height(), isVulnerable));
+					Cell.Bitmap isVulnerable = Cell.Bitmap.ofFalse(game.width(), game.height());
+					for (Unit enemy : game.enemiesSeenBy(team).forEach())
+						isVulnerable.orInPlace(enemy.getAttackableMap());
+					vulnerable.put(team, isVulnerable);
 				}
 			}
 
 			double eval(Unit unit) {
+				return eval(unit, isVulnerable(unit));
+			}
+
+			static double eval(Unit unit, boolean isVulnerable) {
 				double eval = Weight.Alive;
 
 				double health = unit.getHealth() + (unit.isRepairing() ? unit.repairAmount() / 2 : 0);
 				eval += health * Weight.Health;
 
-				if (isVulnerable(unit)) {
+				if (isVulnerable) {
 					eval -= Weight.VulnerablePenalty;
 					if (unit.isRepairing())
 						eval -= Weight.VulnerableRepairPenalty;
@@ -148,9 +225,11 @@ class ValueFunctionImpl implements GameTreeAlg.ValueFunction<Action, GameImpl.No
 
 		}
 
-		private final Buildings Buildings = new Buildings();
+		static double moneyEval(int money) {
+			return 0.2 * Math.pow(money, 4.0 / 5.0);
+		}
 
-		private class Buildings {
+		private static class Buildings {
 
 			private static class Weight {
 				static final double Factory = 50;
@@ -160,7 +239,17 @@ class ValueFunctionImpl implements GameTreeAlg.ValueFunction<Action, GameImpl.No
 				static final double AllowUnitBuildAir = 20;
 			}
 
-			double eval(Building building) {
+			/* add the building evaluation to its team and to the team conquering it */
+			static void eval(Game game, Building building, double[] evals) {
+				double buildingEval = eval(game, building);
+				if (building.getTeam() != null)
+					evals[building.getTeam().ordinal()] += buildingEval;
+				Team conquerTeam = building.getConquerTeam();
+				if (conquerTeam != null)
+					evals[conquerTeam.ordinal()] += buildingEval * building.getConquerProgress();
+			}
+
+			private static double eval(Game game, Building building) {
 				double eval = 0;
 				eval += building.getMoneyGain();
 				if (building.type.canBuildUnits) {
@@ -179,6 +268,176 @@ class ValueFunctionImpl implements GameTreeAlg.ValueFunction<Action, GameImpl.No
 
 	}
 
+	private static class IncrementalPositionEvaluator {
+
+		private final int height;
+		private final double[] unitsEvals = new double[Team.values().length];
+		private final double[] buildingsEvals = new double[Team.values().length];
+		private final Map<Unit, UnitEntry> units = new IdentityHashMap<>();
+		private final Map<Building, double[]> buildings = new IdentityHashMap<>();
+
+		/* number of the enemies seen by a team that can attack each cell */
+		private final int[][] attackers;
+
+		/* entities changed since the last evaluation, modified by the game events */
+		private final Set<Unit> dirtyUnits = Collections.newSetFromMap(new IdentityHashMap<>());
+		private final Set<Building> dirtyBuildings = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		private static class UnitEntry {
+			int pos;
+			Team team;
+			double eval;
+			int[] attackable = new int[0]; /* indices of the cells the unit can attack */
+			final boolean[] seenBy = new boolean[Team.values().length];
+		}
+
+		IncrementalPositionEvaluator(Game game) {
+			height = game.height();
+			attackers = new int[Team.values().length][game.width() * game.height()];
+			game.onEntityChange.addListener(e -> {
+				if (e.source() instanceof Unit unit) {
+					dirtyUnits.add(unit);
+				} else if (e.source() instanceof Building building) {
+					dirtyBuildings.add(building);
+				}
+			});
+			for (Unit unit : game.units().forEach())
+				dirtyUnits.add(unit);
+			for (Building building : game.buildings().forEach())
+				dirtyBuildings.add(building);
+		}
+
+		double[] evaluate(Game game) {
+			update(game);
+			double[] evals = new double[Team.values().length];
+			for (Team team : Team.values()) {
+				int t = team.ordinal();
+				evals[t] = unitsEvals[t] + buildingsEvals[t] + PositionEvaluator.moneyEval(game.getMoney(team));
+			}
+			return evals;
+		}
+
+		private void update(Game game) {
+			if (dirtyUnits.isEmpty() && dirtyBuildings.isEmpty())
+				return;
+
+			/* cells that were occupied or vacated */
+			ListInt dirtyCells = new ListInt.Array();
+			for (Unit unit : dirtyUnits) {
+				UnitEntry entry = units.get(unit);
+				if (entry != null)
+					dirtyCells.add(entry.pos);
+				if (isOnBoard(game, unit))
+					dirtyCells.add(unit.getPos());
+			}
+
+			/*
+			 * The attackable map of a unit and its visibility depend only on the cells
+			 * within its influence radius, the contribution to the attackers counters is
+			 * recomputed only for units near a dirty cell.
+			 */
+			Set<Unit> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+			affected.addAll(dirtyUnits);
+			for (Map.Entry<Unit, UnitEntry> e : units.entrySet()) {
+				int pos = e.getValue().pos, radius = influenceRadius(e.getKey());
+				for (Iter.Int it = dirtyCells.iterator(); it.hasNext();) {
+					if (Cell.distNorm1(pos, it.next()) <= radius) {
+						affected.add(e.getKey());
+						break;
+					}
+				}
+			}
+
+			ListInt touchedCells = new ListInt.Array();
+			for (Unit unit : affected) {
+				UnitEntry entry = units.get(unit);
+				if (entry == null)
+					continue;
+				addAttackers(entry, -1, touchedCells);
+				if (!isOnBoard(game, unit)) {
+					unitsEvals[entry.team.ordinal()] -= entry.eval;
+					units.remove(unit);
+				}
+			}
+			for (Unit unit : affected) {
+				if (!isOnBoard(game, unit))
+					continue;
+				UnitEntry entry = units.computeIfAbsent(unit, u -> new UnitEntry());
+				entry.pos = unit.getPos();
+				entry.team = unit.getTeam();
+				entry.attackable = unit.getAttackableMap().cells().mapInt(this::index).toArray();
+				for (Team team : Team.values())
+					entry.seenBy[team.ordinal()] = team != entry.team && game.isUnitVisible(entry.pos, team);
+				addAttackers(entry, 1, touchedCells);
+			}
+
+			/* units evaluation depends on their own state and the attackers of their cell */
+			Set<Unit> reevaluate = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (Unit unit : affected)
+				if (units.containsKey(unit))
+					reevaluate.add(unit);
+			for (Iter.Int it = touchedCells.iterator(); it.hasNext();) {
+				int idx = it.next();
+				Unit unit = game.unit(Cell.of(idx / height, idx % height));
+				if (unit != null && units.containsKey(unit))
+					reevaluate.add(unit);
+			}
+			for (Unit unit : reevaluate) {
+				UnitEntry entry = units.get(unit);
+				int t = entry.team.ordinal();
+				unitsEvals[t] -= entry.eval;
+				entry.eval = PositionEvaluator.Units.eval(unit, attackers[t][index(entry.pos)] > 0);
+				unitsEvals[t] += entry.eval;
+			}
+
+			/* factories evaluation depends on whether a unit blocks them */
+			for (Iter.Int it = dirtyCells.iterator(); it.hasNext();) {
+				Building building = game.building(it.next());
+				if (building != null)
+					dirtyBuildings.add(building);
+			}
+			for (Building building : dirtyBuildings) {
+				double[] oldEval = buildings.get(building);
+				double[] eval = new double[Team.values().length];
+				PositionEvaluator.Buildings.eval(game, building, eval);
+				for (int t = 0; t < eval.length; t++)
+					buildingsEvals[t] += eval[t] - (oldEval != null ? oldEval[t] : 0);
+				buildings.put(building, eval);
+			}
+
+			dirtyUnits.clear();
+			dirtyBuildings.clear();
+		}
+
+		private void addAttackers(UnitEntry entry, int delta, ListInt touchedCells) {
+			for (int t = 0; t < entry.seenBy.length; t++) {
+				if (!entry.seenBy[t])
+					continue;
+				for (int idx : entry.attackable) {
+					attackers[t][idx] += delta;
+					touchedCells.add(idx);
+				}
+			}
+		}
+
+		private static boolean isOnBoard(Game game, Unit unit) {
+			/* dead or transported units are not on the board */
+			return game.unit(unit.getPos()) == unit;
+		}
+
+		private static int influenceRadius(Unit unit) {
+			Unit.Weapon weapon = unit.type.weapon;
+			int attackRadius = weapon.type == Unit.Weapon.Type.CloseRange ? unit.type.moveLimit + 1 : weapon.maxRange;
+			/* the visibility of a unit depends on its neighbors */
+			return attackRadius + 1;
+		}
+
+		private int index(int cell) {
+			return Cell.x(cell) * height + Cell.y(cell);
+		}
+
+	}
+
 	private static class ActionEvaluator {
 
 		private final AttackPlans attackPlans;
@@ -194,292 +453,414 @@ class ValueFunctionImpl implements GameTreeAlg.ValueFunction<Action, GameImpl.No
 		double evaluate() {
 			double overallAttackEval = 0;
 			List<Unit> enemies = game.enemiesSeenBy(us).toList();
-			for (Unit attacker0 : game.units(us).forEach()) {
-				Unit attacker = attacker0.type.transportUnits ? attacker0.getTransportedUnit() : attacker0;
+			for (Unit boardUnit : game.units(us).forEach()) {
+				Unit movingUnit = boardUnit.type.transportUnits ? boardUnit.getTransportedUnit() : boardUnit;
+
+				/* The damage doesn't depend on the target, so the best attack is on the closest target */
+				AttackPlans.Attack attack = attackPlans.getClosestAttack(boardUnit, movingUnit, enemies);
+				if (attack != null) {
+					double dis = attack.distance;
+					overallAttackEval += (1 / (dis + 1)) * movingUnit.getDamge(attack.target);
+				}
+			}
+
+			return overallAttackEval;
+		}
+	}
+
+	private static class AttackPlans {
+
+		/*
+		 * The distances are computed lazily, so the relevant state is copied from the
+		 * game: the game object may be modified after the AttackPlans object is
+		 * created.
+		 */
+		private final int width, height;
+		private final TerrainDistances terrainDistances;
+		private final SearchStats stats;
+		private final Cell.Array<Team> unitsTeams;
+		private final boolean[] canBuildLandingCraft;
+		private final boolean[] canBuildTransportPlane;
+
+		/* the cost of going around a unit in the way */
+		private static final int DetourWeight = 2 * TerrainDistances.MoveWeight;
+
+		AttackPlans(Game game, TerrainDistances terrainDistances, SearchStats stats) {
+			width = game.width();
+			height = game.height();
+			this.terrainDistances = Objects.requireNonNull(terrainDistances);
+			this.stats = Objects.requireNonNull(stats);
+			unitsTeams = Cell.Array.fromFunc(width, height, cell -> {
+				Unit unit = game.unit(cell);
+				return unit != null ? unit.getTeam() : null;
+			});
+			canBuildLandingCraft = new boolean[Team.values().length];
+			canBuildTransportPlane = new boolean[Team.values().length];
+			for (Team team : Team.values()) {
+				canBuildLandingCraft[team.ordinal()] = game.canBuildUnitType(team, Unit.Type.LandingCraft);
+				canBuildTransportPlane[team.ordinal()] = game.canBuildUnitType(team, Unit.Type.TransportPlane);
+			}
+		}
 
-				/* Find the best attack */
-				double bestAttackEval = 0;
-				for (Unit target : enemies) {
-					if (!attacker.canAttack(target.type))
+		private boolean isValidCell(int cell) {
+			return Cell.isInRect(cell, width - 1, height - 1);
+		}
+
+		/**
+		 * Find the closest target an attacker can attack
+		 *
+		 * @param boardUnit  the attacker unit on the board
+		 * @param movingUnit boardUnit itself, or the unit it transports
+		 * @param targets    the potential targets
+		 * @return the closest target movingUnit can attack and the distance to it, or
+		 *         null if no target can be reached
+		 */
+		Attack getClosestAttack(Unit boardUnit, Unit movingUnit, List<Unit> targets) {
+			boolean useTransportWater = canBuildLandingCraft[boardUnit.getTeam().ordinal()];
+			boolean useTransportAir = canBuildTransportPlane[boardUnit.getTeam().ordinal()];
+
+			Unit.Type transportType;
+			if (!boardUnit.type.transportUnits) {
+				transportType = null;
+			} else {
+				transportType = boardUnit.type;
+				useTransportWater = useTransportWater || transportType == Unit.Type.LandingCraft;
+				useTransportAir = useTransportWater || transportType == Unit.Type.TransportPlane;
+			}
+
+			/*
+			 * The attacker must reach one of the targets neighbors. The distances are
+			 * terrain only, the units are accounted for by excluding the neighbors occupied
+			 * by enemies and by occupancyPenalty(). The sources are sorted and unique, each
+			 * with the index of its target in the low bits.
+			 */
+			long[] sources = new long[targets.size() * 4];
+			int sourcesNum = 0;
+			for (int t = 0; t < targets.size(); t++) {
+				Unit target = targets.get(t);
+				if (!movingUnit.canAttack(target.type))
+					continue;
+				for (Iter.Int nit = Cell.neighbors(target.getPos()); nit.hasNext();) {
+					int neighbor = nit.next();
+					if (!isValidCell(neighbor) || !movingUnit.type.canStandOn(terrainDistances.terrains.at(neighbor)))
 						continue;
-					double dis = attackPlans.getAttackDistance(attacker0, target);
-					if (dis < 0)
+					Team neighborTeam = unitsTeams.at(neighbor);
+					if (neighborTeam != null && neighborTeam != movingUnit.getTeam())
 						continue;
-					double attackEval = (1 / (dis + 1)) * attacker.getDamge(target);
-					if (attackEval > bestAttackEval)
-						bestAttackEval = attackEval;
+					sources[sourcesNum++] = ((long) neighbor << 32) | t;
 				}
-				overallAttackEval += bestAttackEval;
 			}
+			Arrays.sort(sources, 0, sourcesNum);
+			int[] sourceCells = new int[sourcesNum];
+			int[] sourceTargets = new int[sourcesNum];
+			int uniqueNum = 0;
+			for (int i = 0; i < sourcesNum; i++) {
+				int cell = (int) (sources[i] >>> 32);
+				if (uniqueNum > 0 && sourceCells[uniqueNum - 1] == cell)
+					continue;
+				sourceCells[uniqueNum] = cell;
+				sourceTargets[uniqueNum++] = (int) sources[i];
+			}
+			if (uniqueNum == 0)
+				return null;
+			if (uniqueNum < sourcesNum)
+				sourceCells = Arrays.copyOf(sourceCells, uniqueNum);
+
+			TerrainDistances.PassabilityKey passability = new TerrainDistances.PassabilityKey(
+					movingUnit.type.canStandOn, useTransportWater, useTransportAir);
+			TerrainDistances.Field field = terrainDistances.getField(passability, sourceCells, stats);
+			int v = terrainDistances.vIdx(movingUnit.getPos(), transportType);
+			int distance = field.distances[v];
+			if (distance == Integer.MAX_VALUE)
+				return null;
+			distance += occupancyPenalty(terrainDistances.graph(passability), field, v, movingUnit.getTeam());
+			Unit target = targets.get(sourceTargets[field.nearestSources[v]]);
+			return new Attack(target, distance + TerrainDistances.MoveWeight);
+		}
 
-			return overallAttackEval;
+		/*
+		 * Walk down the field from the attacker to its nearest source, preferring cells
+		 * not occupied by enemies, and penalize each enemy on the way by a detour. All
+		 * the graph edges have a reverse edge, so a closer neighbor always exists.
+		 */
+		private int occupancyPenalty(GraphCSR graph, TerrainDistances.Field field, int v, Team team) {
+			int penalty = 0;
+			for (int d = field.distances[v]; d != 0;) {
+				int next = -1, nextCost = Integer.MAX_VALUE;
+				for (int e = graph.edgesBegin(v), end = graph.edgesEnd(v); e < end; e++) {
+					int u = graph.edgeTarget(e);
+					int du = field.distances[u];
+					if (du >= d)
+						continue;
+					int cost = isEnemy(terrainDistances.cell(u), team) ? du + DetourWeight : du;
+					if (cost < nextCost) {
+						next = u;
+						nextCost = cost;
+					}
+				}
+				if (next == -1)
+					break;
+				if (isEnemy(terrainDistances.cell(next), team))
+					penalty += DetourWeight;
+				v = next;
+				d = field.distances[v];
+			}
+			return penalty;
+		}
+
+		private boolean isEnemy(int cell, Team team) {
+			Team cellTeam = unitsTeams.at(cell);
+			return cellTeam != null && cellTeam != team;
 		}
+
+		static class Attack {
+			final Unit target;
+			final int distance;
+
+			Attack(Unit target, int distance) {
+				this.target = target;
+				this.distance = distance;
+			}
+		}
+
 	}
 
-	private static class AttackPlans {
-		private final Game game;
+	/*
+	 * Distances fields of a terrain map. The terrain never changes during a game,
+	 * so a single object is shared by all the positions and searches of a level,
+	 * and each field is computed once, on first use.
+	 */
+	static class TerrainDistances {
 
-		AttackPlans(Game game) {
-			this.game = Objects.requireNonNull(game);
+		private static enum Layer {
+			Regular, Water, Air
 		}
 
-		private final Map<PlanKey, Plan> plans = new HashMap<>();
-		private final SSSP sssp = new SSSPDial1969();
+		private final int width, height;
+		private final Cell.Array<Terrain> terrains;
+		private final Map<PassabilityKey, GraphCSR> graphs = new ConcurrentHashMap<>();
+		/*
+		 * fields of the same targets are reused by the positions of a search, in which
+		 * most units don't move. Weighted by the fields memory in ints, the budget is
+		 * per level, as a single object is shared by all the searches of a level.
+		 */
+		private final Cache<FieldKey, Field> fields = new Cache.ConcurrentLRU<>(FieldsBudget,
+				field -> field.distances.length + field.nearestSources.length);
+		private static final int FieldsBudget = 1 << 22;
+		private static final ThreadLocal<SSSPDialCSR> sssp = ThreadLocal.withInitial(SSSPDialCSR::new);
+
+		static final int MoveWeight = 3;
+		private static final int TransportWaterWeight = 10;
+		private static final int TransportAirhWeight = 10;
+		private static final int TransportFinishWeight = 1;
+
+		TerrainDistances(Cell.Array<Terrain> terrains) {
+			this.terrains = Objects.requireNonNull(terrains);
+			width = terrains.width();
+			height = terrains.height();
+		}
 
-		private int cellToVIdx(int cell, Unit.Type transportType) {
-			Plan.Layer layer;
+		private Iter.Int cells() {
+			return Cell.Iter2D.of(width, height);
+		}
+
+		private boolean isValidCell(int cell) {
+			return Cell.isInRect(cell, width - 1, height - 1);
+		}
+
+		int vIdx(int cell, Unit.Type transportType) {
+			Layer layer;
 			if (transportType == null) {
-				layer = Plan.Layer.Regular;
+				layer = Layer.Regular;
 
 			} else {
 				switch (transportType) {
 				case LandingCraft:
-					layer = Plan.Layer.Water;
+					layer = Layer.Water;
 					break;
 				case TransportPlane:
-					layer = Plan.Layer.Air;
+					layer = Layer.Air;
 					break;
 				default:
 					throw new IllegalArgumentException("Unexpected value: " + transportType);
 				}
 			}
 
-			int layerSize = game.width() * game.height();
-			return layer.ordinal() * layerSize + Cell.x(cell) * game.height() + Cell.y(cell);
+			int layerSize = width * height;
+			return layer.ordinal() * layerSize + Cell.x(cell) * height + Cell.y(cell);
 		}
 
-		double getAttackDistance(Unit attacker, Unit target) {
-			boolean useTransportWater = game.canBuildUnitType(attacker.getTeam(), Unit.Type.LandingCraft);
-			boolean useTransportAir = game.canBuildUnitType(attacker.getTeam(), Unit.Type.TransportPlane);
+		/* the cell of a vertex of any layer, the inverse of vIdx() */
+		int cell(int v) {
+			int idx = v % (width * height);
+			return Cell.of(idx / height, idx % height);
+		}
 
-			Unit.Type transportType;
-			Unit attacker0;
-			if (!attacker.type.transportUnits) {
-				transportType = null;
-				attacker0 = attacker;
-			} else {
-				transportType = attacker.type;
-				useTransportWater = useTransportWater || transportType == Unit.Type.LandingCraft;
-				useTransportAir = useTransportWater || transportType == Unit.Type.TransportPlane;
-				attacker0 = attacker.getTransportedUnit();
-			}
+		GraphCSR graph(PassabilityKey passability) {
+			return graphs.computeIfAbsent(passability, this::createGraph);
+		}
 
-			PlanKey key = new PlanKey(attacker0, target, useTransportWater, useTransportAir);
-			Plan plan = plans.computeIfAbsent(key, k -> new Plan(k.attackerCanStandOn, k.attackerTeam, k.target,
-					k.useTransportWater, k.useTransportAir));
-			return plan.getAttackDistance(attacker0.getPos(), transportType);
+		/**
+		 * Get the distances field of a set of cells
+		 *
+		 * @param passability the passability of the moving unit
+		 * @param cells       the source cells, in the regular layer, sorted
+		 * @param stats       statistics of the searcher, counting the SSSP invocations
+		 * @return the distances from the nearest source to all the vertices of the
+		 *         layered graph, computed in a single SSSP
+		 */
+		Field getField(PassabilityKey passability, int[] cells, SearchStats stats) {
+			return fields.getOrCompute(new FieldKey(passability, cells), key -> {
+				GraphCSR graph = graph(passability);
+				int[] sources = new int[cells.length];
+				for (int i = 0; i < cells.length; i++)
+					sources[i] = vIdx(cells[i], null);
+				stats.ssspInvocation();
+				SSSPDialCSR sssp = TerrainDistances.sssp.get();
+				int[] distances = sssp.calcDistances(graph, sources);
+				int n = graph.vertices();
+				return new Field(Arrays.copyOf(distances, n), Arrays.copyOf(sssp.nearestSources(), n));
+			});
 		}
 
-		private class Plan {
+		static class Field {
+			/* indexed by vIdx(), Integer.MAX_VALUE for unreachable vertices */
+			final int[] distances;
+			/* indexed by vIdx(), the index of the nearest source cell */
+			final int[] nearestSources;
 
-			private static enum Layer {
-				Regular, Water, Air
+			Field(int[] distances, int[] nearestSources) {
+				this.distances = distances;
+				this.nearestSources = nearestSources;
 			}
+		}
 
-			private final SSSP.Result<Integer> distances;
-			private final Set<Terrain.Category> attackerCanStandOn;
-			private final Team attackerTeam;
-
-			private static final Integer MoveWeight = Integer.valueOf(3);
-			private static final Integer TransportWaterWeight = Integer.valueOf(10);
-			private static final Integer TransportAirhWeight = Integer.valueOf(10);
-			private static final Integer TransportFinishWeight = Integer.valueOf(1);
-
-			Plan(Set<Terrain.Category> attackerCanStandOn, Team attackerTeam, int target, boolean useTransportWater,
-					boolean useTransportAir) {
-				this.attackerCanStandOn = attackerCanStandOn;
-				this.attackerTeam = attackerTeam;
-
-				/**
-				 * We want to create a graph that will represent all move path of a unit. We
-				 * create a graph with (layerNum * width * height) vertices, were Layer.Regular
-				 * is the layer containing vertices and edges the unit can stand on by itself.
-				 * Layer.Water and Layer.Air are containing the vertices and edges the unit can
-				 * move while transported by either LandingCraft or TransportPlane respectively.
-				 * In addition, there are edges connecting the layers representing the action of
-				 * wrapping a unit by a transporter or finishing a transportation extracting the
-				 * original unit from a wrapper transported unit. Within each layer all the
-				 * edges have a weight of 1. Edges between layers have different weights as
-				 * penalty for the action and cost.
-				 */
-				Graph<Integer> graph = new GraphArrayDirected<>(Layer.values().length * game.width() * game.height());
-
-				/* Add vertices and edges of Layer.Regular */
-				for (Iter.Int it = game.cells(); it.hasNext();) {
-					int cell = it.next();
-					if (!canStandOn(cell))
-						continue;
-					int u = cellToVIdx(cell, null);
-
-					/* Add edges to 4 neighbors */
-					for (Iter.Int nit = Cell.neighbors(cell); nit.hasNext();) {
-						int neighbor = nit.next();
-						if (!game.isValidCell(neighbor) || !canStandOn(neighbor))
-							continue;
-						int v = cellToVIdx(neighbor, null);
-						graph.addEdge(u, v).setData(MoveWeight);
-					}
-				}
-
-				/* Add vertices and edges of Layer.Water */
-				if (useTransportWater) {
-					for (Iter.Int it = game.cells(); it.hasNext();) {
-						int cell = it.next();
-						if (!canTransportOnWater(cell))
-							continue;
-						int u = cellToVIdx(cell, Unit.Type.LandingCraft);
-
-						/* Add edges to 4 neighbors */
-						for (Iter.Int nit = Cell.neighbors(cell); nit.hasNext();) {
-							int neighbor = nit.next();
-							if (!game.isValidCell(neighbor) || !canTransportOnWater(neighbor))
-								continue;
-							int v = cellToVIdx(neighbor, Unit.Type.LandingCraft);
-							graph.addEdge(u, v).setData(MoveWeight);
-						}
-
-						/* Add edges to Layer.Regular */
-						if (canStandOn(cell)) {
-							int v = cellToVIdx(cell, null);
-							graph.addEdge(u, v).setData(TransportWaterWeight);
-							graph.addEdge(v, u).setData(TransportFinishWeight);
-						}
-					}
-				}
+		GraphCSR createGraph(PassabilityKey key) {
+			/**
+			 * We want to create a graph that will represent all move path of a unit. We
+			 * create a graph with (layerNum * width * height) vertices, were Layer.Regular
+			 * is the layer containing vertices and edges the unit can stand on by itself.
+			 * Layer.Water and Layer.Air are containing the vertices and edges the unit can
+			 * move while transported by either LandingCraft or TransportPlane respectively.
+			 * In addition, there are edges connecting the layers representing the action of
+			 * wrapping a unit by a transporter or finishing a transportation extracting the
+			 * original unit from a wrapper transported unit. Within each layer all the
+			 * edges have the same weight. Edges between layers have different weights as
+			 * penalty for the action and cost. Units are not part of the graph.
+			 */
+			GraphCSR.Builder graph = new GraphCSR.Builder(Layer.values().length * width * height);
+			IntPredicate canStandOn = cell -> key.canStandOn.contains(terrains.at(cell).category);
+			IntPredicate canTransportOnWater = cell -> Unit.Type.LandingCraft.canStandOn(terrains.at(cell));
+			IntPredicate canTransportOnAir = cell -> Unit.Type.TransportPlane.canStandOn(terrains.at(cell));
+
+			addLayer(graph, canStandOn, null);
+			if (key.useTransportWater)
+				addTransportLayer(graph, canTransportOnWater, canStandOn, Unit.Type.LandingCraft,
+						TransportWaterWeight);
+			if (key.useTransportAir)
+				addTransportLayer(graph, canTransportOnAir, canStandOn, Unit.Type.TransportPlane, TransportAirhWeight);
+			return graph.build();
+		}
 
-				/* Add vertices and edges of Layer.Air */
-				if (useTransportAir) {
-					for (Iter.Int it = game.cells(); it.hasNext();) {
-						int cell = it.next();
-						if (!canTransportOnAir(cell))
-							continue;
-						int u = cellToVIdx(cell, Unit.Type.TransportPlane);
-
-						/* Add edges to 4 neighbors */
-						for (Iter.Int nit = Cell.neighbors(cell); nit.hasNext();) {
-							int neighbor = nit.next();
-							if (!game.isValidCell(neighbor) || !canTransportOnAir(neighbor))
-								continue;
-							int v = cellToVIdx(neighbor, Unit.Type.TransportPlane);
-							graph.addEdge(u, v).setData(MoveWeight);
-						}
-
-						/* Add edges to Layer.Regular */
-						if (canStandOn(cell)) {
-							int v = cellToVIdx(cell, null);
-							graph.addEdge(u, v).setData(TransportAirhWeight);
-							graph.addEdge(v, u).setData(TransportFinishWeight);
-						}
-					}
-				}
+		private void addLayer(GraphCSR.Builder graph, IntPredicate isPassable, Unit.Type transportType) {
+			for (Iter.Int it = cells(); it.hasNext();) {
+				int cell = it.next();
+				if (!isPassable.test(cell))
+					continue;
+				int u = vIdx(cell, transportType);
 
-				/*
-				 * Add artificial edges from target from the SSSP to find a path to it, as the
-				 * unit can't stand on it
-				 */
-				for (Iter.Int nit = Cell.neighbors(target); nit.hasNext();) {
+				/* Add edges to 4 neighbors */
+				for (Iter.Int nit = Cell.neighbors(cell); nit.hasNext();) {
 					int neighbor = nit.next();
-					if (!game.isValidCell(neighbor) || !canStandOn(neighbor))
+					if (!isValidCell(neighbor) || !isPassable.test(neighbor))
 						continue;
-					int v = cellToVIdx(neighbor, null);
-					graph.addEdge(cellToVIdx(target, null), v).setData(MoveWeight);
+					int v = vIdx(neighbor, transportType);
+					graph.addEdge(u, v, MoveWeight);
 				}
-
-				/* Calculate all distances to the target using SSSP */
-				Graph.WeightFunctionInt<Integer> w = e -> e.data().intValue();
-				distances = sssp.calcDistances(graph, w, cellToVIdx(target, null));
 			}
+		}
 
-			@SuppressWarnings("unused")
-			void debug() {
-				System.out.println();
-				for (int y = 0; y < game.height(); y++) {
-					for (int x = 0; x < game.width(); x++) {
-						int d = (int) getAttackDistance(Cell.of(x, y), null);
-						System.out.print(String.format("%04d ", Integer.valueOf(d)));
-					}
-					System.out.println();
-				}
-				System.out.println("********");
-				for (int y = 0; y < game.height(); y++) {
-					for (int x = 0; x < game.width(); x++) {
-						int d = (int) getAttackDistance(Cell.of(x, y), Unit.Type.TransportPlane);
-						System.out.print(String.format("%04d ", Integer.valueOf(d)));
-					}
-					System.out.println();
-				}
-				System.out.println();
+		private void addTransportLayer(GraphCSR.Builder graph, IntPredicate isPassable, IntPredicate canStandOn,
+				Unit.Type transportType, int transportWeight) {
+			addLayer(graph, isPassable, transportType);
+
+			/* Add edges to Layer.Regular */
+			for (Iter.Int it = cells(); it.hasNext();) {
+				int cell = it.next();
+				if (!isPassable.test(cell) || !canStandOn.test(cell))
+					continue;
+				int u = vIdx(cell, transportType);
+				int v = vIdx(cell, null);
+				graph.addEdge(u, v, transportWeight);
+				graph.addEdge(v, u, TransportFinishWeight);
 			}
+		}
 
-			double getAttackDistance(int source, Unit.Type transportType) {
-				double d = distances.distance(cellToVIdx(source, transportType));
-				return d != Double.POSITIVE_INFINITY ? d : -1;
-			}
+		static class PassabilityKey {
+			final Set<Terrain.Category> canStandOn;
+			final boolean useTransportWater;
+			final boolean useTransportAir;
 
-			private boolean canStandOn(int cell) {
-				if (!attackerCanStandOn.contains(game.terrain(cell).category))
-					return false;
-				Unit u = game.unit(cell);
-				return u == null || u.getTeam() == attackerTeam;
+			PassabilityKey(Set<Terrain.Category> canStandOn, boolean useTransportWater, boolean useTransportAir) {
+				this.canStandOn = Objects.requireNonNull(canStandOn);
+				this.useTransportWater = useTransportWater;
+				this.useTransportAir = useTransportAir;
 			}
 
-			private boolean canTransportOnWater(int cell) {
-				if (!Unit.Type.LandingCraft.canStandOn(game.terrain(cell)))
-					return false;
-				Unit u = game.unit(cell);
-				return u == null || u.getTeam() == attackerTeam;
+			@Override
+			public int hashCode() {
+				int h = 1;
+				h = h * 31 + canStandOn.hashCode();
+				h = h * 31 + Boolean.hashCode(useTransportWater);
+				h = h * 31 + Boolean.hashCode(useTransportAir);
+				return h;
 			}
 
-			private boolean canTransportOnAir(int cell) {
-				if (!Unit.Type.TransportPlane.canStandOn(game.terrain(cell)))
+			@Override
+			public boolean equals(Object other) {
+				if (other == this)
+					return true;
+				if (!(other instanceof PassabilityKey))
 					return false;
-				Unit u = game.unit(cell);
-				return u == null || u.getTeam() == attackerTeam;
+				PassabilityKey o = (PassabilityKey) other;
+				return useTransportWater == o.useTransportWater && useTransportAir == o.useTransportAir
+						&& canStandOn.equals(o.canStandOn);
 			}
 
+			@Override
+			public String toString() {
+				return "[" + canStandOn + ", useTransportWater=" + useTransportWater + ", useTransportAir="
+						+ useTransportAir + "]";
+			}
 		}
 
-		private static class PlanKey {
-			final Set<Terrain.Category> attackerCanStandOn;
-			final Team attackerTeam;
-			final int target;
-			final boolean useTransportWater;
-			final boolean useTransportAir;
+		private static class FieldKey {
+			final PassabilityKey passability;
+			final int[] cells;
 
-			PlanKey(Unit attacker, Unit target, boolean useTransportWater, boolean useTransportAir) {
-				this.attackerCanStandOn = attacker.type.canStandOn;
-				this.attackerTeam = attacker.getTeam();
-				this.target = target.getPos();
-				this.useTransportWater = useTransportWater;
-				this.useTransportAir = useTransportAir;
+			FieldKey(PassabilityKey passability, int[] cells) {
+				this.passability = Objects.requireNonNull(passability);
+				this.cells = Objects.requireNonNull(cells);
 			}
 
 			@Override
 			public int hashCode() {
-				int h = 1;
-				h = h * 31 + attackerCanStandOn.hashCode();
-				h = h * 31 + attackerTeam.hashCode();
-				h = h * 31 + target;
-				h = h * 31 + Boolean.hashCode(useTransportWater);
-				h = h * 31 + Boolean.hashCode(useTransportAir);
-				return h;
+				return passability.hashCode() * 31 + Arrays.hashCode(cells);
 			}
 
 			@Override
 			public boolean equals(Object other) {
 				if (other == this)
 					return true;
-				if (!(other instanceof PlanKey))
+				if (!(other instanceof FieldKey))
 					return false;
-				PlanKey o = (PlanKey) other;
-				return target == o.target && attackerTeam == o.attackerTeam && useTransportWater == o.useTransportWater
-						&& useTransportAir == o.useTransportAir && attackerCanStandOn.equals(o.attackerCanStandOn);
+				FieldKey o = (FieldKey) other;
+				return Arrays.equals(cells, o.cells) && passability.equals(o.passability);
 			}
 
 			@Override
 			public String toString() {
-				return "[" + attackerCanStandOn + ", " + attackerTeam + ", " + Cell.toString(target)
-						+ ", useTransportWater=" + useTransportWater + ", useTransportAir=" + useTransportAir + "]";
+				return "[" + passability + ", " + Cell.toString(ListInt.of(cells)) + "]";
 			}
 		}
 	}
@@ -34,22 +34,65 @@ public abstract class Action {
 
 	public static class UnitMove extends Action {
 		final int source;
+		final int destination;
+		/* null if the unit shortest path to the destination should be used */
 		final ListInt path;
 
 		public UnitMove(int source, ListInt path) {
 			this.source = source;
 			this.path = path.copy().unmodifiableView();
+			destination = this.path.last();
+		}
+
+		/**
+		 * Create a move action without a path.
+		 *
+		 * The path is calculated only when the action is performed, and it is the
+		 * shortest path of the unit to the destination.
+		 */
+		public UnitMove(int source, int destination) {
+			this.source = source;
+			this.destination = destination;
+			this.path = null;
+		}
+
+		public int getSource() {
+			return source;
+		}
+
+		public int getDestination() {
+			return destination;
+		}
+
+		/* The actions are equal if they move the same unit to the same destination, regardless of the path */
+		@Override
+		public boolean equals(Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof UnitMove))
+				return false;
+			UnitMove other = (UnitMove) o;
+
+			return source == other.source && destination == other.destination;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(Integer.valueOf(source), Integer.valueOf(destination));
 		}
 
 		@Override
 		public String toString() {
-			return "UnitMove(" + Cell.toString(source) + ", " + Cell.toString(path) + ")";
+			return "UnitMove(" + Cell.toString(source) + ", "
+					+ (path != null ? Cell.toString(path) : Cell.toString(destination)) + ")";
 		}
 
 	}
 
 	public static class UnitMoveAndAttack extends Action {
 		final int attacker;
+		final int destination;
+		/* null if the unit shortest path to the destination should be used */
 		final ListInt path;
 		final int target;
 
@@ -57,12 +100,56 @@ public abstract class Action {
 			this.attacker = attacker;
 			this.path = path.copy().unmodifiableView();
 			this.target = target;
+			destination = this.path.isEmpty() ? attacker : this.path.last();
+		}
+
+		/**
+		 * Create a move and attack action without a path.
+		 *
+		 * The path is calculated only when the action is performed, and it is the
+		 * shortest path of the unit to the destination.
+		 */
+		public UnitMoveAndAttack(int attacker, int destination, int target) {
+			this.attacker = attacker;
+			this.destination = destination;
+			this.path = null;
+			this.target = target;
+		}
+
+		public int getAttacker() {
+			return attacker;
+		}
+
+		public int getDestination() {
+			return destination;
+		}
+
+		public int getTarget() {
+			return target;
+		}
+
+		/* The actions are equal if they attack from the same destination, regardless of the path */
+		@Override
+		public boolean equals(Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof UnitMoveAndAttack))
+				return false;
+			UnitMoveAndAttack other = (UnitMoveAndAttack) o;
+
+			return attacker == other.attacker && destination == other.destination && target == other.target;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(Integer.valueOf(attacker), Integer.valueOf(destination), Integer.valueOf(target));
 		}
 
 		@Override
 		public String toString() {
-			return "UnitMoveAndAttack(" + Cell.toString(attacker) + ", " + Cell.toString(path) + ", "
-					+ Cell.toString(target) + ")";
+			return "UnitMoveAndAttack(" + Cell.toString(attacker) + ", "
+					+ (path != null ? Cell.toString(path) : Cell.toString(destination)) + ", " + Cell.toString(target)
+					+ ")";
 		}
 
 	}
@@ -77,6 +164,30 @@ public abstract class Action {
 			this.target = target;
 		}
 
+		public int getAttacker() {
+			return attacker;
+		}
+
+		public int getTarget() {
+			return target;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof UnitAttackLongRange))
+				return false;
+			UnitAttackLongRange other = (UnitAttackLongRange) o;
+
+			return attacker == other.attacker && target == other.target;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(Integer.valueOf(attacker), Integer.valueOf(target));
+		}
+
 		@Override
 		public String toString() {
 			return "UnitAttackLongRange(" + Cell.toString(attacker) + ", " + Cell.toString(target) + ")";
@@ -94,6 +205,22 @@ public abstract class Action {
 			this.unit = Objects.requireNonNull(unit);
 		}
 
+		@Override
+		public boolean equals(Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof UnitBuild))
+				return false;
+			UnitBuild other = (UnitBuild) o;
+
+			return factory == other.factory && unit == other.unit;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(Integer.valueOf(factory), unit);
+		}
+
 		@Override
 		public String toString() {
 			return "UnitBuild(" + Cell.toString(factory) + ", " + unit + ")";
@@ -111,6 +238,22 @@ public abstract class Action {
 			this.transport = Objects.requireNonNull(transport);
 		}
 
+		@Override
+		public boolean equals(Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof UnitTransport))
+				return false;
+			UnitTransport other = (UnitTransport) o;
+
+			return unit == other.unit && transport == other.transport;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(Integer.valueOf(unit), transport);
+		}
+
 		@Override
 		public String toString() {
 			return "UnitTransport(" + Cell.toString(unit) + ", " + transport + ")";
@@ -126,6 +269,22 @@ public abstract class Action {
 			this.unit = unit;
 		}
 
+		@Override
+		public boolean equals(Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof UnitTransportFinish))
+				return false;
+			UnitTransportFinish other = (UnitTransportFinish) o;
+
+			return unit == other.unit;
+		}
+
+		@Override
+		public int hashCode() {
+			return Integer.hashCode(unit);
+		}
+
 		@Override
 		public String toString() {
 			return "UnitTransportFinish(" + Cell.toString(unit) + ")";
@@ -141,6 +300,22 @@ public abstract class Action {
 			this.unit = unit;
 		}
 
+		@Override
+		public boolean equals(Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof UnitRepair))
+				return false;
+			UnitRepair other = (UnitRepair) o;
+
+			return unit == other.unit;
+		}
+
+		@Override
+		public int hashCode() {
+			return Integer.hashCode(unit);
+		}
+
 		@Override
 		public String toString() {
 			return "UnitRepair(" + Cell.toString(unit) + ")";
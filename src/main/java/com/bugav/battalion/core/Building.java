@@ -11,6 +11,7 @@ import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
+import com.bugav.battalion.core.Game.EntityChange;
 import com.bugav.battalion.core.Level.BuildingDesc;
 import com.bugav.battalion.util.Event;
 
@@ -121,6 +122,7 @@ public class Building extends Entity implements IBuilding {
 
 	public static Building copyOf(Game game, Building building) {
 		Building copy = new Building(game, building.type, building.getTeam(), building.pos, building.isActive());
+		copy.setActive(building.isActive());
 		copy.conquerTeam = building.conquerTeam;
 		copy.conquerProgress = building.conquerProgress;
 		return copy;
@@ -144,22 +146,26 @@ public class Building extends Entity implements IBuilding {
 
 	}
 
+	@Override
+	void setTeam(Team team) {
+		Team oldTeam = getTeam();
+		super.setTeam(team);
+		if (oldTeam != team)
+			game.onBuildingTeamChange(this, oldTeam);
+	}
+
 	void tryConquer(Unit conquerer) {
 		Team conquererTeam = conquerer != null ? conquerer.getTeam() : null;
-		if (conquererTeam != conquerTeam) {
-			conquerTeam = null;
-			conquerProgress = 0;
-		}
+		if (conquererTeam != conquerTeam)
+			setConquer(null, 0);
 		if (conquerer != null && conquererTeam != getTeam()) {
-			conquerTeam = conquererTeam;
-			conquerProgress++;
+			setConquer(conquererTeam, conquerProgress + 1);
 			game.onConquerProgress.notify(new ConquerEvent(game, this, conquerer));
 
 			if (conquerProgress >= getConquerDuration()) {
 				Team conqueredTeam = getTeam();
 				setTeam(conquererTeam);
-				conquerTeam = null;
-				conquerProgress = 0;
+				setConquer(null, 0);
 
 				game.buildingsCache.invalidate();
 				game.onConquerFinish.notify(new ConquerEvent(game, this, conquerer));
@@ -170,6 +176,19 @@ public class Building extends Entity implements IBuilding {
 		}
 	}
 
+	private void setConquer(Team team, int progress) {
+		if (conquerTeam == team && conquerProgress == progress)
+			return;
+		game.beforeEntityChange(this);
+		Team oldTeam = conquerTeam;
+		int oldProgress = conquerProgress;
+		game.recordUndo(() -> setConquer(oldTeam, oldProgress));
+		conquerTeam = team;
+		conquerProgress = progress;
+		game.afterEntityChange(this);
+		onChange().notify(new EntityChange(this));
+	}
+
 	private int getConquerDuration() {
 		return getTeam() == null ? CONQUER_DURATION_FROM_NONE : CONQUER_DURATION_FROM_OTHER;
 	}
@@ -182,6 +201,10 @@ public class Building extends Entity implements IBuilding {
 		return (double) conquerProgress / getConquerDuration();
 	}
 
+	int getConquerProgressRaw() {
+		return conquerProgress;
+	}
+
 	public int getMoneyGain() {
 		return type.moneyGain;
 	}
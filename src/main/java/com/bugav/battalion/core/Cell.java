@@ -1,8 +1,10 @@
 package com.bugav.battalion.core;
 
-import java.util.BitSet;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.IntFunction;
 import java.util.function.IntPredicate;
 
@@ -154,9 +156,16 @@ public class Cell {
 
 	}
 
+	/**
+	 * A set of cells in a width x height rectangle.
+	 *
+	 * The cells are stored one bit per cell in row major order (y major, x minor),
+	 * the same order as Iter2D, so the bulk operations between bitmaps of the same
+	 * dimensions work on 64 cells at a time.
+	 */
 	public static class Bitmap implements IntPredicate {
 
-		private final BitSet map;
+		private final long[] words;
 		private final int width, height;
 
 		public static Bitmap empty() {
@@ -166,18 +175,28 @@ public class Cell {
 		private Bitmap(int width, int height) {
 			this.width = width;
 			this.height = height;
-			this.map = new BitSet(width * height);
+			this.words = new long[(width * height + 63) >>> 6];
+		}
+
+		private Bitmap(Bitmap other) {
+			width = other.width;
+			height = other.height;
+			words = other.words.clone();
 		}
 
 		public static Bitmap fromPredicate(int width, int height, IntPredicate predicate) {
 			Bitmap map = new Bitmap(width, height);
-			for (Iter.Int it = Iter2D.of(width, height); it.hasNext();) {
-				int cell = it.next();
-				map.set(cell, predicate.test(cell));
-			}
+			for (int y = 0, idx = 0; y < height; y++)
+				for (int x = 0; x < width; x++, idx++)
+					if (predicate.test(Cell.of(x, y)))
+						map.words[idx >>> 6] |= 1L << idx;
 			return map;
 		}
 
+		public Bitmap copy() {
+			return new Bitmap(this);
+		}
+
 		public int width() {
 			return width;
 		}
@@ -191,7 +210,10 @@ public class Cell {
 		}
 
 		public boolean contains(int x, int y) {
-			return isInRange(x, y) && map.get(indexOf(x, y));
+			if (!isInRange(x, y))
+				return false;
+			int idx = indexOf(x, y);
+			return (words[idx >>> 6] & (1L << idx)) != 0;
 		}
 
 		public void set(int cell, boolean val) {
@@ -201,47 +223,241 @@ public class Cell {
 		public void set(int x, int y, boolean val) {
 			if (!isInRange(x, y))
 				throw new IndexOutOfBoundsException();
-			map.set(indexOf(x, y), val);
+			int idx = indexOf(x, y);
+			if (val)
+				words[idx >>> 6] |= 1L << idx;
+			else
+				words[idx >>> 6] &= ~(1L << idx);
+		}
+
+		public int cardinality() {
+			int count = 0;
+			for (long word : words)
+				count += Long.bitCount(word);
+			return count;
+		}
+
+		public boolean isEmpty() {
+			for (long word : words)
+				if (word != 0)
+					return false;
+			return true;
+		}
+
+		public boolean intersects(Bitmap other) {
+			checkDimensions(other);
+			for (int i = 0; i < words.length; i++)
+				if ((words[i] & other.words[i]) != 0)
+					return true;
+			return false;
 		}
 
 		public Iter.Int cells() {
-			return Iter2D.of(width, height).filter(this::contains);
+			return new Iter.Int() {
+
+				int idx = nextSetBit(0);
+
+				@Override
+				public boolean hasNext() {
+					return idx >= 0;
+				}
+
+				@Override
+				public int next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					int cell = cellOf(idx);
+					idx = nextSetBit(idx + 1);
+					return cell;
+				}
+
+			};
+		}
+
+		private int nextSetBit(int fromIdx) {
+			int wordIdx = fromIdx >>> 6;
+			if (wordIdx >= words.length)
+				return -1;
+			long word = words[wordIdx] & (-1L << fromIdx);
+			for (;;) {
+				if (word != 0)
+					return (wordIdx << 6) + Long.numberOfTrailingZeros(word);
+				if (++wordIdx >= words.length)
+					return -1;
+				word = words[wordIdx];
+			}
 		}
 
 		public Bitmap not() {
-			return fromPredicate(width, height, cell -> !contains(cell));
+			Bitmap res = new Bitmap(width, height);
+			for (int i = 0; i < words.length; i++)
+				res.words[i] = ~words[i];
+			res.clearTail();
+			return res;
 		}
 
 		@Override
 		public Bitmap and(IntPredicate predicate) {
-			return fromPredicate(width, height, cell -> contains(cell) && predicate.test(cell));
+			if (predicate instanceof Bitmap other && isSameDimensions(other)) {
+				Bitmap res = copy();
+				res.andInPlace(other);
+				return res;
+			}
+			Bitmap res = new Bitmap(width, height);
+			for (int idx = nextSetBit(0); idx >= 0; idx = nextSetBit(idx + 1))
+				if (predicate.test(cellOf(idx)))
+					res.words[idx >>> 6] |= 1L << idx;
+			return res;
 		}
 
 		@Override
 		public Bitmap or(IntPredicate predicate) {
+			if (predicate instanceof Bitmap other && isSameDimensions(other)) {
+				Bitmap res = copy();
+				res.orInPlace(other);
+				return res;
+			}
 			return fromPredicate(width, height, cell -> contains(cell) || predicate.test(cell));
 		}
 
 		public Bitmap xor(IntPredicate predicate) {
+			if (predicate instanceof Bitmap other && isSameDimensions(other)) {
+				Bitmap res = copy();
+				res.xorInPlace(other);
+				return res;
+			}
 			return fromPredicate(width, height, cell -> contains(cell) ^ predicate.test(cell));
 		}
 
+		public Bitmap andNot(Bitmap other) {
+			Bitmap res = copy();
+			res.andNotInPlace(other);
+			return res;
+		}
+
+		public void andInPlace(Bitmap other) {
+			checkDimensions(other);
+			for (int i = 0; i < words.length; i++)
+				words[i] &= other.words[i];
+		}
+
+		public void orInPlace(Bitmap other) {
+			checkDimensions(other);
+			for (int i = 0; i < words.length; i++)
+				words[i] |= other.words[i];
+		}
+
+		public void andNotInPlace(Bitmap other) {
+			checkDimensions(other);
+			for (int i = 0; i < words.length; i++)
+				words[i] &= ~other.words[i];
+		}
+
+		public void xorInPlace(Bitmap other) {
+			checkDimensions(other);
+			for (int i = 0; i < words.length; i++)
+				words[i] ^= other.words[i];
+		}
+
+		/**
+		 * Get the cells which are neighbors of at least one cell of this bitmap.
+		 *
+		 * A cell of the bitmap is contained in the result only if one of its neighbors
+		 * is also in the bitmap.
+		 */
+		public Bitmap neighbors() {
+			Bitmap res = new Bitmap(width, height);
+			if (words.length == 0)
+				return res;
+			ColumnMasks masks = ColumnMasks.of(width, height);
+			for (int i = 0; i < words.length; i++) {
+				/* (x - 1, y) and (x + 1, y), without wrapping between rows */
+				long word = shiftedUp(words, i, 1) & ~masks.firstColumn[i];
+				word |= shiftedDown(words, i, 1) & ~masks.lastColumn[i];
+				/* (x, y - 1) and (x, y + 1) */
+				word |= shiftedUp(words, i, width) | shiftedDown(words, i, width);
+				res.words[i] = word;
+			}
+			res.clearTail();
+			return res;
+		}
+
+		/* word i of the bits shifted by n to higher indices, bit[idx + n] = src[idx] */
+		private static long shiftedUp(long[] src, int i, int n) {
+			int j = i - (n >>> 6), bitShift = n & 63;
+			long word = j >= 0 ? src[j] << bitShift : 0;
+			if (bitShift != 0 && j - 1 >= 0)
+				word |= src[j - 1] >>> (64 - bitShift);
+			return word;
+		}
+
+		/* word i of the bits shifted by n to lower indices, bit[idx - n] = src[idx] */
+		private static long shiftedDown(long[] src, int i, int n) {
+			int j = i + (n >>> 6), bitShift = n & 63;
+			long word = j < src.length ? src[j] >>> bitShift : 0;
+			if (bitShift != 0 && j + 1 < src.length)
+				word |= src[j + 1] << (64 - bitShift);
+			return word;
+		}
+
+		/* The first and last column of each board dimensions, shared by all bitmaps */
+		private static class ColumnMasks {
+
+			final long[] firstColumn;
+			final long[] lastColumn;
+			private static final Map<Integer, ColumnMasks> cache = new ConcurrentHashMap<>();
+
+			private ColumnMasks(int width, int height) {
+				firstColumn = fromPredicate(width, height, cell -> x(cell) == 0).words;
+				lastColumn = fromPredicate(width, height, cell -> x(cell) == width - 1).words;
+			}
+
+			static ColumnMasks of(int width, int height) {
+				return cache.computeIfAbsent(Integer.valueOf(Cell.of(width, height)),
+						k -> new ColumnMasks(width, height));
+			}
+
+		}
+
 		public static Bitmap ofTrue(int width, int height) {
-			return fromPredicate(width, height, p -> true);
+			Bitmap map = new Bitmap(width, height);
+			Arrays.fill(map.words, -1L);
+			map.clearTail();
+			return map;
 		}
 
 		public static Bitmap ofFalse(int width, int height) {
-			return fromPredicate(width, height, p -> false);
+			return new Bitmap(width, height);
+		}
+
+		private void clearTail() {
+			int size = width * height;
+			if ((size & 63) != 0)
+				words[words.length - 1] &= (1L << size) - 1;
 		}
 
 		private int indexOf(int x, int y) {
-			return x * height + y;
+			return y * width + x;
+		}
+
+		private int cellOf(int idx) {
+			return Cell.of(idx % width, idx / width);
 		}
 
 		private boolean isInRange(int x, int y) {
 			return 0 <= x && x < width && 0 <= y && y < height;
 		}
 
+		private boolean isSameDimensions(Bitmap other) {
+			return width == other.width && height == other.height;
+		}
+
+		private void checkDimensions(Bitmap other) {
+			if (!isSameDimensions(other))
+				throw new IllegalArgumentException("bitmaps dimensions mismatch: " + width + "x" + height + " != "
+						+ other.width + "x" + other.height);
+		}
+
 		@Override
 		public boolean test(int cell) {
 			return contains(cell);
@@ -24,7 +24,11 @@ public abstract class Entity {
 	void setTeam(Team team) {
 		if (Objects.equals(this.team, team))
 			return;
+		game.beforeEntityChange(this);
+		Team oldTeam = this.team;
+		game.recordUndo(() -> setTeam(oldTeam));
 		this.team = team;
+		game.afterEntityChange(this);
 		onChange().notify(new EntityChange(this));
 	}
 
@@ -37,7 +41,10 @@ public abstract class Entity {
 	void setActive(boolean active) {
 		if (this.active == active)
 			return;
+		game.beforeEntityChange(this);
+		game.recordUndo(() -> setActive(!active));
 		this.active = active;
+		game.afterEntityChange(this);
 		onChange().notify(new EntityChange(this));
 	}
 
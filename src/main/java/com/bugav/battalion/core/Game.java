@@ -1,11 +1,14 @@
 package com.bugav.battalion.core;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.BooleanSupplier;
@@ -19,22 +22,40 @@ import com.bugav.battalion.core.Unit.Weapon;
 import com.bugav.battalion.util.Event;
 import com.bugav.battalion.util.Iter;
 import com.bugav.battalion.util.ListInt;
-import com.bugav.battalion.util.Utils;
 import com.bugav.battalion.util.ValuesCache;
 
 public class Game {
 
 	private final Cell.Array<Terrain> terrains;
+	private final Object terrainsKey; /* shared by all the copies of a game */
 	private final Cell.Array<Unit> units;
 	private final Cell.Array<Building> buildings;
 
-	final ValuesCache unitsCache = new ValuesCache();
+	/* the units and buildings on the board, all and of each team */
+	private final EntityList<Unit> unitsList = new EntityList<>();
+	private final Map<Team, EntityList<Unit>> teamUnits = new EnumMap<>(Team.class);
+	private final EntityList<Building> buildingsList = new EntityList<>();
+	private final Map<Team, EntityList<Building>> teamBuildings = new EnumMap<>(Team.class);
+	{
+		for (Team team : Team.values()) {
+			teamUnits.put(team, new EntityList<>());
+			teamBuildings.put(team, new EntityList<>());
+		}
+	}
+
+	final UnitsCache unitsCache = new UnitsCache(this);
 	final ValuesCache buildingsCache = new ValuesCache();
 
 	private final Map<Team, TeamData> teamData;
-	private final Iterator<Team> turnIterator;
 	private Team turn;
 	private Team winner;
+	private long hash;
+	private boolean hashValid; /* false during construction */
+
+	/* undo journal, null if undo is disabled */
+	private List<Runnable> journal;
+	private final ListInt journalMarks = new ListInt.Array();
+	private boolean undoing;
 
 	public final Event.Notifier<EntityChange> onEntityChange = new Event.Notifier<>();
 	public final Event.Notifier<UnitAdd> onUnitAdd = new Event.Notifier<>();
@@ -57,6 +78,7 @@ public class Game {
 	private Game(Level level) {
 		int w = level.width(), h = level.height();
 		terrains = Cell.Array.fromFunc(w, h, cell -> level.terrain(cell));
+		terrainsKey = new Object();
 		units = Cell.Array.fromFunc(w, h, pos -> {
 			UnitDesc desc = level.unit(pos);
 			return desc != null ? Unit.valueOf(this, desc, pos) : null;
@@ -67,17 +89,21 @@ public class Game {
 		});
 
 		teamData = new HashMap<>();
-		turnIterator = Utils.iteratorRepeatInfty(List.of(Team.values()));
-		turn = turnIterator.next();
+		turn = Team.values()[0];
 		winner = null;
 
 		for (Team team : Team.values())
 			teamData.put(team, new TeamData(level.getStartingMoney(team)));
+
+		initEntitiesLists();
+		hash = calcHash();
+		hashValid = true;
 	}
 
 	private Game(Game game) {
 		int w = game.width(), h = game.height();
 		terrains = Cell.Array.fromFunc(w, h, pos -> game.terrain(pos));
+		terrainsKey = game.terrainsKey;
 		units = Cell.Array.fromFunc(w, h, pos -> {
 			Unit unit = game.unit(pos);
 			return unit != null ? Unit.copyOf(this, unit) : null;
@@ -88,13 +114,31 @@ public class Game {
 		});
 
 		teamData = new HashMap<>();
-		turnIterator = Utils.iteratorRepeatInfty(List.of(Team.values()));
-		while (!(turn = turnIterator.next()).equals(game.getTurn()))
-			;
+		turn = game.turn;
 		winner = game.winner;
 
 		for (Team team : Team.values())
 			teamData.put(team, new TeamData(game.getMoney(team)));
+
+		initEntitiesLists();
+		hash = calcHash();
+		hashValid = true;
+		assert hash == game.hash;
+	}
+
+	private void initEntitiesLists() {
+		for (Iter.Int it = cells(); it.hasNext();) {
+			int cell = it.next();
+			Unit unit = unit(cell);
+			if (unit != null)
+				addToLists(unit);
+			Building building = building(cell);
+			if (building != null) {
+				buildingsList.add(building);
+				if (building.getTeam() != null)
+					teamBuildings.get(building.getTeam()).add(building);
+			}
+		}
 	}
 
 	public static Game fromLevel(Level level) {
@@ -121,6 +165,16 @@ public class Game {
 		return terrains.height();
 	}
 
+	/**
+	 * Get a key identifying the terrains of the game.
+	 *
+	 * The terrains never change, and all the copies of a game have the same key, so
+	 * it can be used to cache computations that depend only on the terrains.
+	 */
+	public Object getTerrainsKey() {
+		return terrainsKey;
+	}
+
 	public Terrain terrain(int cell) {
 		return terrains.at(cell);
 	}
@@ -135,18 +189,96 @@ public class Game {
 
 	private void setUnit(int cell, Unit unit) {
 		assert units.at(cell) == null;
+		/* the invalidation undo entries are recorded first, so they are run after the undo below */
+		unitsCache.invalidate(cell);
 		units.set(cell, Objects.requireNonNull(unit));
+		recordUndo(() -> {
+			unitsCache.invalidate(cell);
+			units.set(cell, null);
+			removeFromLists(unit);
+			onEntityChange.notify(new EntityChange(unit));
+		});
 		unit.setPos(cell);
+		addToLists(unit);
 		if (unit.type.transportUnits)
 			unit.getTransportedUnit().setPos(cell);
-		unitsCache.invalidate();
+		hash ^= Zobrist.unit(unit);
+		onEntityChange.notify(new EntityChange(unit));
 	}
 
 	private void removeUnit(Unit unit) {
 		int pos = unit.getPos();
 		assert unit == this.unit(pos);
+		hash ^= Zobrist.unit(unit);
+		unitsCache.invalidate(pos);
 		units.set(pos, null);
-		unitsCache.invalidate();
+		removeFromLists(unit);
+		recordUndo(() -> {
+			unitsCache.invalidate(pos);
+			units.set(pos, unit);
+			addToLists(unit);
+			onEntityChange.notify(new EntityChange(unit));
+		});
+		onEntityChange.notify(new EntityChange(unit));
+	}
+
+	private void addToLists(Unit unit) {
+		unitsList.add(unit);
+		teamUnits.get(unit.getTeam()).add(unit);
+	}
+
+	private void removeFromLists(Unit unit) {
+		unitsList.remove(unit);
+		teamUnits.get(unit.getTeam()).remove(unit);
+	}
+
+	void onBuildingTeamChange(Building building, Team oldTeam) {
+		if (oldTeam != null)
+			teamBuildings.get(oldTeam).remove(building);
+		if (building.getTeam() != null)
+			teamBuildings.get(building.getTeam()).add(building);
+	}
+
+	/**
+	 * Get the Zobrist hash of the game state.
+	 *
+	 * The hash is maintained incrementally and covers the units, buildings, money
+	 * and turn. Two games with the same state have the same hash.
+	 *
+	 * @return 64-bit hash of the current state
+	 */
+	public long getZobristHash() {
+		return hash;
+	}
+
+	private long calcHash() {
+		long h = Zobrist.turn(turn);
+		for (Unit unit : units().forEach())
+			h ^= Zobrist.unit(unit);
+		for (Building building : buildings().forEach())
+			h ^= Zobrist.building(building);
+		for (Team team : Team.values())
+			h ^= Zobrist.money(team, getMoney(team));
+		return h;
+	}
+
+	void beforeEntityChange(Entity entity) {
+		if (hashValid && !undoing && isOnBoard(entity))
+			hash ^= entityKey(entity);
+	}
+
+	void afterEntityChange(Entity entity) {
+		if (hashValid && !undoing && isOnBoard(entity))
+			hash ^= entityKey(entity);
+	}
+
+	private boolean isOnBoard(Entity entity) {
+		int pos = entity.getPos();
+		return entity instanceof Unit ? unit(pos) == entity : building(pos) == entity;
+	}
+
+	private static long entityKey(Entity entity) {
+		return entity instanceof Unit unit ? Zobrist.unit(unit) : Zobrist.building((Building) entity);
 	}
 
 	public boolean isValidCell(int cell) {
@@ -158,19 +290,21 @@ public class Game {
 	}
 
 	public Iter<Building> buildings() {
-		return cells().map(this::building).filter(Objects::nonNull);
+		return buildingsList.iterator();
 	}
 
 	public Iter<Building> buildings(Team team) {
-		return buildings().filter(b -> team == b.getTeam());
+		if (team == null)
+			return buildings().filter(b -> b.getTeam() == null);
+		return teamBuildings.get(team).iterator();
 	}
 
 	public Iter<Unit> units() {
-		return cells().map(this::unit).filter(Objects::nonNull);
+		return unitsList.iterator();
 	}
 
 	public Iter<Unit> units(Team team) {
-		return units().filter(u -> team == u.getTeam());
+		return teamUnits.get(team).iterator();
 	}
 
 	public Iter<Unit> unitsSeenBy(Team viewer) {
@@ -184,27 +318,33 @@ public class Game {
 	private final Map<Team, Supplier<Cell.Bitmap>> visibleUnitBitmap = new EnumMap<>(Team.class);
 	{
 		for (Team viewer : Team.values()) {
-			visibleUnitBitmap.put(viewer, unitsCache.newVal(() -> Cell.Bitmap.fromPredicate(width(), height(), pos -> {
-				Unit unit = unit(pos);
-				if (unit == null)
-					return false;
-
-				if (!unit.type.invisible || unit.getTeam() == viewer)
-					return true;
-				for (Iter.Int nit = Cell.neighbors(pos); nit.hasNext();) {
-					int n = nit.next();
-					if (!isValidCell(n))
-						continue;
-					Unit neighbor = unit(n);
-					if (neighbor != null && neighbor.getTeam() == viewer)
-						return true;
-				}
-				return false;
-			})));
+			visibleUnitBitmap.put(viewer, unitsCache.newVal(() -> calcVisibleUnitBitmap(viewer), m -> null));
 		}
 	}
 
-	private Cell.Bitmap getVisibleUnitBitmap(Team viewer) {
+	private Cell.Bitmap calcVisibleUnitBitmap(Team viewer) {
+		Cell.Bitmap visible = Cell.Bitmap.ofFalse(width(), height());
+		for (Unit unit : units().forEach())
+			if (isUnitVisible0(unit, viewer))
+				visible.set(unit.getPos(), true);
+		return visible;
+	}
+
+	private boolean isUnitVisible0(Unit unit, Team viewer) {
+		if (!unit.type.invisible || unit.getTeam() == viewer)
+			return true;
+		for (Iter.Int nit = Cell.neighbors(unit.getPos()); nit.hasNext();) {
+			int n = nit.next();
+			if (!isValidCell(n))
+				continue;
+			Unit neighbor = unit(n);
+			if (neighbor != null && neighbor.getTeam() == viewer)
+				return true;
+		}
+		return false;
+	}
+
+	Cell.Bitmap getVisibleUnitBitmap(Team viewer) {
 		return visibleUnitBitmap.get(viewer).get();
 	}
 
@@ -225,12 +365,17 @@ public class Game {
 		TeamData data = teamData.get(team);
 		if (data.money + delta < 0)
 			throw new IllegalStateException();
+		hash ^= Zobrist.money(team, data.money) ^ Zobrist.money(team, data.money + delta);
+		int oldMoney = data.money;
+		recordUndo(() -> data.money = oldMoney);
 		data.money += delta;
 		assert data.money >= 0;
 		onMoneyChange.notify(new MoneyChange(this, team, delta, data.money));
 	}
 
 	public void performAction(Action action0) {
+		if (journal != null)
+			journalMark();
 		onAction.notify(new ActionEvent(this, action0));
 
 		try {
@@ -239,9 +384,12 @@ public class Game {
 			} else if (action0 instanceof Action.TurnEnd action) {
 				turnEnd();
 			} else if (action0 instanceof Action.UnitMove action) {
-				move(unit(action.source), action.path);
+				Unit unit = unit(action.source);
+				move(unit, action.path != null ? action.path : unit.calcPath(action.destination));
 			} else if (action0 instanceof Action.UnitMoveAndAttack action) {
-				moveAndAttack(unit(action.attacker), action.path, unit(action.target));
+				Unit unit = unit(action.attacker);
+				ListInt path = action.path != null ? action.path : unit.calcPath(action.destination);
+				moveAndAttack(unit, path, unit(action.target));
 			} else if (action0 instanceof Action.UnitAttackLongRange action) {
 				attackRange(unit(action.attacker), unit(action.target));
 			} else if (action0 instanceof Action.UnitBuild action) {
@@ -259,6 +407,58 @@ public class Game {
 		} catch (GameEndException e) {
 			onGameEnd.notify(new GameEnd(this, getWinner()));
 		}
+		assert hash == calcHash();
+	}
+
+	/**
+	 * Enable or disable undo of actions.
+	 *
+	 * When enabled, every state modification done by performAction() is recorded in
+	 * a journal, and undoAction() can restore the game to the exact state it was
+	 * before the last action. This allows searching a single game object by
+	 * applying and undoing actions, instead of copying the game for every position.
+	 *
+	 * @param enable if true, actions performed from now on can be undone
+	 */
+	public void setUndoEnabled(boolean enable) {
+		journal = enable ? new ArrayList<>() : null;
+		journalMarks.clear();
+	}
+
+	/**
+	 * Undo the last action performed while undo was enabled.
+	 *
+	 * No events are fired for the undone modifications other than entities changes.
+	 */
+	public void undoAction() {
+		if (journal == null || journalMarks.isEmpty())
+			throw new IllegalStateException("no action to undo");
+		int mark = journalMarks.get(journalMarks.size() - 1);
+		journalMarks.removeIndex(journalMarks.size() - 1);
+		undoing = true;
+		try {
+			for (int i = journal.size() - 1; i >= mark; i--)
+				journal.remove(i).run();
+		} finally {
+			undoing = false;
+		}
+		assert hash == calcHash();
+	}
+
+	private void journalMark() {
+		journalMarks.add(journal.size());
+		/* the first entry of each action restores the hash and the buildings cache, and is run last */
+		long prevHash = hash;
+		int buildingsCacheVersion = buildingsCache.getVersion();
+		journal.add(() -> {
+			hash = prevHash;
+			buildingsCache.restoreVersion(buildingsCacheVersion);
+		});
+	}
+
+	void recordUndo(Runnable undo) {
+		if (journal != null && !undoing)
+			journal.add(undo);
 	}
 
 	private void start() {
@@ -285,7 +485,7 @@ public class Game {
 		}
 
 		Team prevTurn = turn;
-		Team nextTurn = turnIterator.next();
+		Team nextTurn = Team.values()[(turn.ordinal() + 1) % Team.values().length];
 
 		/* Conquer buildings */
 		for (Building building : buildings().forEach()) {
@@ -306,18 +506,14 @@ public class Game {
 
 		turnBegin(nextTurn);
 
+		hash ^= Zobrist.turn(turn) ^ Zobrist.turn(nextTurn);
+		recordUndo(() -> turn = prevTurn);
 		turn = nextTurn;
 		onTurnEnd.notify(new TurnEnd(this, prevTurn, turn));
 	}
 
-	private final Map<Team, BooleanSupplier> isTeamAlive = new EnumMap<>(Team.class);
-	{
-		for (Team team : Team.values())
-			isTeamAlive.put(team, unitsCache.newValBool(() -> units(team).hasNext()));
-	}
-
 	private boolean isTeamAlive(Team team) {
-		return isTeamAlive.get(team).getAsBoolean();
+		return !teamUnits.get(team).isEmpty();
 	}
 
 	public boolean isFinished() {
@@ -339,12 +535,12 @@ public class Game {
 	void eliminateTeam(Team team) {
 		onTeamElimination.notify(new TeamEliminateEvent(this, team));
 
-		for (Unit unit : units(team).forEach()) {
+		for (Unit unit : units(team).toList()) {
 			unit.setHealth(0);
 			removeUnit(unit);
 			onUnitRemove.notify(new UnitRemove(this, unit));
 		}
-		for (Building building : buildings(team).forEach())
+		for (Building building : buildings(team).toList())
 			building.setTeam(null);
 
 		if (isFinished())
@@ -538,11 +734,11 @@ public class Game {
 	{
 		for (Team team : Team.values()) {
 			canBuildLandUnits.put(team, buildingsCache.newValBool(
-					() -> (buildings().filter(b -> team == b.getTeam() && b.type.allowUnitBuildLand).hasNext())));
+					() -> (buildings(team).filter(b -> b.type.allowUnitBuildLand).hasNext())));
 			canBuildWaterUnits.put(team, buildingsCache.newValBool(
-					() -> (buildings().filter(b -> team == b.getTeam() && b.type.allowUnitBuildWater).hasNext())));
+					() -> (buildings(team).filter(b -> b.type.allowUnitBuildWater).hasNext())));
 			canBuildAirUnits.put(team, buildingsCache.newValBool(
-					() -> (buildings().filter(b -> team == b.getTeam() && b.type.allowUnitBuildAir).hasNext())));
+					() -> (buildings(team).filter(b -> b.type.allowUnitBuildAir).hasNext())));
 		}
 	}
 
@@ -736,4 +932,85 @@ public class Game {
 
 	}
 
+	/*
+	 * Dense list of entities, kept in the board order of cells(). The order depends
+	 * only on the entities positions and not on the modifications history, so it
+	 * is the same as the order of a copy of the game, and undoing a modification
+	 * restores it. The list must not be modified while it is iterated, iterate over
+	 * a copy (toList()) instead.
+	 */
+	private static class EntityList<E extends Entity> {
+
+		private Entity[] entities = new Entity[8];
+		private int size;
+		private int modCount;
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void add(E entity) {
+			if (size == entities.length)
+				entities = Arrays.copyOf(entities, size * 2);
+			int key = boardOrder(entity.getPos());
+			int idx = size;
+			if (idx > 0 && boardOrder(entities[idx - 1].getPos()) > key) {
+				/* binary search, entities are added in board order when a game is created */
+				int lo = 0, hi = size - 1;
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (boardOrder(entities[mid].getPos()) < key)
+						lo = mid + 1;
+					else
+						hi = mid;
+				}
+				idx = lo;
+				System.arraycopy(entities, idx, entities, idx + 1, size - idx);
+			}
+			entities[idx] = entity;
+			size++;
+			modCount++;
+		}
+
+		/* by identity, the entity position may already be changed */
+		void remove(E entity) {
+			int idx = 0;
+			while (entities[idx] != entity)
+				idx++;
+			System.arraycopy(entities, idx + 1, entities, idx, size - idx - 1);
+			entities[--size] = null;
+			modCount++;
+		}
+
+		/* the index of a cell in the iteration order of Cell.Iter2D, y major and x minor */
+		private static int boardOrder(int cell) {
+			return (Cell.y(cell) << 16) | Cell.x(cell);
+		}
+
+		Iter<E> iterator() {
+			return new Iter<>() {
+
+				int idx;
+				final int expectedModCount = modCount;
+
+				@Override
+				public boolean hasNext() {
+					if (modCount != expectedModCount)
+						throw new ConcurrentModificationException();
+					return idx < size;
+				}
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public E next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					return (E) entities[idx++];
+				}
+
+			};
+		}
+
+	}
+
 }
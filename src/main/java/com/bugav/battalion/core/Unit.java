@@ -1,5 +1,6 @@
 package com.bugav.battalion.core;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
@@ -92,7 +93,11 @@ public class Unit extends Entity implements IUnit {
 			throw new IllegalArgumentException();
 		if (this.health == health)
 			return;
+		game.beforeEntityChange(this);
+		int oldHealth = this.health;
+		game.recordUndo(() -> setHealth(oldHealth));
 		this.health = health;
+		game.afterEntityChange(this);
 		onChange().notify(new EntityChange(this));
 	}
 
@@ -103,6 +108,8 @@ public class Unit extends Entity implements IUnit {
 	void setPos(int cell) {
 		if (this.pos == cell)
 			return;
+		int oldPos = this.pos;
+		game.recordUndo(() -> setPos(oldPos));
 		this.pos = cell;
 		onChange().notify(new EntityChange(this));
 	}
@@ -115,7 +122,10 @@ public class Unit extends Entity implements IUnit {
 	void setRepairing(boolean repairing) {
 		if (this.repairing == repairing)
 			return;
+		game.beforeEntityChange(this);
+		game.recordUndo(() -> setRepairing(!repairing));
 		this.repairing = repairing;
+		game.afterEntityChange(this);
 		onChange().notify(new EntityChange(this));
 	}
 
@@ -347,8 +357,10 @@ public class Unit extends Entity implements IUnit {
 	private final Supplier<Cell.Bitmap> reachableMapInvisiableEnable;
 	private final Supplier<Cell.Bitmap> reachableMapInvisiableDisable;
 	{
-		reachableMapInvisiableEnable = game.unitsCache.newVal(() -> getReachableMap0(true));
-		reachableMapInvisiableDisable = game.unitsCache.newVal(() -> getReachableMap0(false));
+		reachableMapInvisiableEnable = game.unitsCache.newVal(() -> getReachableMap0(true),
+				m -> getMovementMap(true)::isDependency);
+		reachableMapInvisiableDisable = game.unitsCache.newVal(() -> getReachableMap0(false),
+				m -> getMovementMap(false)::isDependency);
 	}
 
 	Cell.Bitmap getReachableMap(boolean invisiableEnable) {
@@ -358,8 +370,13 @@ public class Unit extends Entity implements IUnit {
 	private Cell.Bitmap getReachableMap0(boolean invisiableEnable) {
 		int unitPos = getPos();
 		Team us = getTeam();
-		return getPassableMap(invisiableEnable)
-				.and(p -> p == unitPos || game.unit(p) == null || (invisiableEnable && !game.isUnitVisible(p, us)));
+		Cell.Bitmap passableMap = getPassableMap(invisiableEnable);
+		if (!invisiableEnable)
+			return passableMap.and(p -> p == unitPos || game.unit(p) == null);
+		Cell.Bitmap reachableMap = passableMap.andNot(game.getVisibleUnitBitmap(us));
+		if (passableMap.contains(unitPos))
+			reachableMap.set(unitPos, true);
+		return reachableMap;
 	}
 
 	public Cell.Bitmap getPassableMap() {
@@ -369,8 +386,10 @@ public class Unit extends Entity implements IUnit {
 	private final Supplier<Cell.Bitmap> passableMapInvisiableEnable;
 	private final Supplier<Cell.Bitmap> passableMapInvisiableDisable;
 	{
-		passableMapInvisiableEnable = game.unitsCache.newVal(() -> getPassableMap0(true));
-		passableMapInvisiableDisable = game.unitsCache.newVal(() -> getPassableMap0(false));
+		passableMapInvisiableEnable = game.unitsCache.newVal(() -> getPassableMap0(true),
+				m -> getMovementMap(true)::isDependency);
+		passableMapInvisiableDisable = game.unitsCache.newVal(() -> getPassableMap0(false),
+				m -> getMovementMap(false)::isDependency);
 	}
 
 	Cell.Bitmap getPassableMap(boolean invisiableEnable) {
@@ -379,27 +398,40 @@ public class Unit extends Entity implements IUnit {
 
 	private Cell.Bitmap getPassableMap0(boolean invisiableEnable) {
 		MovementMap movementMap = getMovementMap(invisiableEnable);
-		return Cell.Bitmap.fromPredicate(game.width(), game.height(),
-				cell -> movementMap.getDistanceTo(cell) <= type.moveLimit);
+		Cell.Bitmap passableMap = Cell.Bitmap.ofFalse(game.width(), game.height());
+		for (Iter.Int it = movementMap.cells(); it.hasNext();) {
+			int cell = it.next();
+			if (movementMap.getDistanceTo(cell) <= type.moveLimit)
+				passableMap.set(cell, true);
+		}
+		return passableMap;
 	}
 
 	private final Supplier<MovementMap> movementMapInvisiableEnable;
 	private final Supplier<MovementMap> movementMapInvisiableDisable;
+	private final Supplier<MovementMap> fullMovementMap;
 	{
-		movementMapInvisiableEnable = game.unitsCache.newVal(() -> calcMovementMap0(true));
-		movementMapInvisiableDisable = game.unitsCache.newVal(() -> calcMovementMap0(false));
+		movementMapInvisiableEnable = game.unitsCache.newVal(() -> calcMovementMap0(true, true), m -> m::isDependency);
+		movementMapInvisiableDisable = game.unitsCache.newVal(() -> calcMovementMap0(false, true),
+				m -> m::isDependency);
+		fullMovementMap = game.unitsCache.newVal(() -> calcMovementMap0(true, false), m -> m::isDependency);
 	}
 
+	/* movement map up to the unit move limit */
 	private MovementMap getMovementMap(boolean invisiableEnable) {
 		return invisiableEnable ? movementMapInvisiableEnable.get() : movementMapInvisiableDisable.get();
 	}
 
 	private static class MovementMap {
 
-		/* Each cell is: */
+		/* The map covers only a window of the board, the cells within the maximum */
+		/* distance from the source. Each cell is: */
 		/* 14 bits of distance map, 0x3FFF for unreachable */
 		/* 2 bits for direction for source */
-		private final short[][] map;
+		private final short[] map;
+		private final int x0, y0, width, height;
+		/* the cells in which the units were read, in the window coordinates */
+		private final Cell.Bitmap dependencies;
 
 		private static final int DistanceMask = 0x3FFF;
 		private static final int DistanceShift = 0;
@@ -408,18 +440,44 @@ public class Unit extends Entity implements IUnit {
 
 		private static final int DistanceUnreachable = 0x3FFF;
 
-		MovementMap(int w, int h) {
-			map = new short[w][h];
+		/* BFS queue, reused by all the maps computed by a thread */
+		private static final ThreadLocal<int[]> fifoBuffer = ThreadLocal.withInitial(() -> new int[0]);
+
+		MovementMap(Game game, int source, int maxDistance) {
+			int gw = game.width(), gh = game.height();
+			int sx = Cell.x(source), sy = Cell.y(source);
+			x0 = Math.max(0, sx - maxDistance);
+			y0 = Math.max(0, sy - maxDistance);
+			width = Math.min(gw, sx + maxDistance + 1) - x0;
+			height = Math.min(gh, sy + maxDistance + 1) - y0;
+			map = new short[width * height];
+			dependencies = Cell.Bitmap.ofFalse(width, height);
 			short initVal = 0;
 			initVal |= (DistanceUnreachable << DistanceShift) & DistanceMask;
 			initVal |= (Direction.XPos.ordinal() << DirToSourceShift) & DirToSourceMask;
-			for (int x = 0; x < w; x++)
-				for (int y = 0; y < h; y++)
-					map[x][y] = initVal;
+			Arrays.fill(map, initVal);
+		}
+
+		private int index(int cell) {
+			int x = Cell.x(cell) - x0, y = Cell.y(cell) - y0;
+			return 0 <= x && x < width && 0 <= y && y < height ? y * width + x : -1;
+		}
+
+		Iter.Int cells() {
+			return Cell.Iter2D.of(x0, x0 + width, y0, y0 + height);
+		}
+
+		void addDependency(int cell) {
+			dependencies.set(Cell.x(cell) - x0, Cell.y(cell) - y0, true);
+		}
+
+		boolean isDependency(int x, int y) {
+			return dependencies.contains(x - x0, y - y0);
 		}
 
 		int getDistanceTo(int cell) {
-			return (map[Cell.x(cell)][Cell.y(cell)] & DistanceMask) >> DistanceShift;
+			int idx = index(cell);
+			return idx >= 0 ? (map[idx] & DistanceMask) >> DistanceShift : DistanceUnreachable;
 		}
 
 		boolean isReachable(int cell) {
@@ -428,7 +486,7 @@ public class Unit extends Entity implements IUnit {
 
 		Direction getDirToSource(int cell) {
 			assert isReachable(cell);
-			int d = (map[Cell.x(cell)][Cell.y(cell)] & DirToSourceMask) >> DirToSourceShift;
+			int d = (map[index(cell)] & DirToSourceMask) >> DirToSourceShift;
 			return Direction.values()[d];
 		}
 
@@ -438,25 +496,35 @@ public class Unit extends Entity implements IUnit {
 			short val = 0;
 			val |= (dist << DistanceShift) & DistanceMask;
 			val |= (dir.ordinal() << DirToSourceShift) & DirToSourceMask;
-			map[Cell.x(cell)][Cell.y(cell)] = val;
+			map[index(cell)] = val;
 			assert getDistanceTo(cell) == dist;
 			assert getDirToSource(cell) == dir;
 		}
+
+		static int[] fifo(int size) {
+			int[] fifo = fifoBuffer.get();
+			if (fifo.length < size)
+				fifoBuffer.set(fifo = new int[size]);
+			return fifo;
+		}
 	}
 
-	private MovementMap calcMovementMap0(boolean invisiableEnable) {
-		int width = game.width(), height = game.height();
-		MovementMap movementMap = new MovementMap(width, height);
+	private MovementMap calcMovementMap0(boolean invisiableEnable, boolean limited) {
+		int maxDistance = limited ? type.moveLimit : MovementMap.DistanceUnreachable - 1;
+		MovementMap movementMap = new MovementMap(game, pos, maxDistance);
 
-		int[] fifo = new int[width * height];
+		int[] fifo = MovementMap.fifo(movementMap.map.length);
 		int fifoBegin = 0, fifoEnd = 0;
 		movementMap.set(pos, 0, /* arbitrary */ Direction.XPos);
+		movementMap.addDependency(pos);
 		fifo[fifoEnd++] = pos;
 
 		while (fifoBegin != fifoEnd) {
 			int p = fifo[fifoBegin++];
 			int d = movementMap.getDistanceTo(p);
 			assert d != MovementMap.DistanceUnreachable;
+			if (d >= maxDistance)
+				continue;
 
 			for (Direction dir : Direction.values()) {
 				int neighbor = Cell.add(p, dir);
@@ -464,6 +532,7 @@ public class Unit extends Entity implements IUnit {
 					continue;
 				if (!type.canStandOn(game.terrain(neighbor)))
 					continue;
+				movementMap.addDependency(neighbor);
 				Unit unit = game.unit(neighbor);
 				if (unit != null && !(invisiableEnable && !game.isUnitVisible(neighbor, getTeam()))
 						&& unit.getTeam() != getTeam())
@@ -477,8 +546,19 @@ public class Unit extends Entity implements IUnit {
 		return movementMap;
 	}
 
+	/**
+	 * Get the length of the shortest path of the unit to a cell.
+	 *
+	 * Distances greater than the unit move limit require a search of the whole
+	 * board, which is computed only on the first such query.
+	 *
+	 * @param cell destination cell
+	 * @return the length of the shortest path to the cell, or -1 if unreachable
+	 */
 	public int getDistanceTo(int cell) {
 		int d = getMovementMap(true).getDistanceTo(cell);
+		if (d == MovementMap.DistanceUnreachable)
+			d = fullMovementMap.get().getDistanceTo(cell);
 		return d != MovementMap.DistanceUnreachable ? d : -1;
 	}
 
@@ -529,7 +609,8 @@ public class Unit extends Entity implements IUnit {
 	private final Supplier<Cell.Bitmap> attackableMapInvisiableEnable;
 //	private final Supplier<Cell.Bitmap> attackableMapInvisiableDisable;
 	{
-		attackableMapInvisiableEnable = game.unitsCache.newVal(() -> getAttackableMap0(true));
+		attackableMapInvisiableEnable = game.unitsCache.newVal(() -> getAttackableMap0(true),
+				m -> getAttackDependencies(getPotentiallyAttackableMap(true), true));
 //		attackableMapInvisiableDisable = game.unitsCache.newVal(() -> getAttackableMap0(false));
 	}
 
@@ -553,8 +634,10 @@ public class Unit extends Entity implements IUnit {
 	private final Supplier<Cell.Bitmap> potentiallyAttackableMapInvisiableEnable;
 	private final Supplier<Cell.Bitmap> potentiallyAttackableMapInvisiableDisable;
 	{
-		potentiallyAttackableMapInvisiableEnable = game.unitsCache.newVal(() -> getPotentiallyAttackableMap0(true));
-		potentiallyAttackableMapInvisiableDisable = game.unitsCache.newVal(() -> getPotentiallyAttackableMap0(false));
+		potentiallyAttackableMapInvisiableEnable = game.unitsCache.newVal(() -> getPotentiallyAttackableMap0(true),
+				m -> getAttackDependencies(m, true));
+		potentiallyAttackableMapInvisiableDisable = game.unitsCache.newVal(() -> getPotentiallyAttackableMap0(false),
+				m -> getAttackDependencies(m, false));
 	}
 
 	private Cell.Bitmap getPotentiallyAttackableMap(boolean invisiableEnable) {
@@ -569,22 +652,29 @@ public class Unit extends Entity implements IUnit {
 		case LongRange:
 			return getPotentiallyAttackableMapLongRange();
 		case None:
-			return Cell.Bitmap.empty();
+			return Cell.Bitmap.ofFalse(game.width(), game.height());
+		default:
+			throw new IllegalArgumentException("Unexpected value: " + type.weapon.type);
+		}
+	}
+
+	private UnitsCache.Dependencies getAttackDependencies(Cell.Bitmap potentiallyAttackableMap,
+			boolean invisiableEnable) {
+		switch (type.weapon.type) {
+		case CloseRange:
+			MovementMap movementMap = getMovementMap(invisiableEnable);
+			return (x, y) -> movementMap.isDependency(x, y) || potentiallyAttackableMap.contains(x, y);
+		case LongRange:
+		case None:
+			int x0 = Cell.x(getPos()), y0 = Cell.y(getPos());
+			return (x, y) -> (x == x0 && y == y0) || potentiallyAttackableMap.contains(x, y);
 		default:
 			throw new IllegalArgumentException("Unexpected value: " + type.weapon.type);
 		}
 	}
 
 	private Cell.Bitmap getPotentiallyAttackableMapCloseRange(boolean invisiableEnable) {
-		Cell.Bitmap reachableMap = getReachableMap(invisiableEnable);
-		Cell.Bitmap attackableMap = Cell.Bitmap.ofFalse(game.width(), game.height());
-		for (Iter.Int it = reachableMap.cells(); it.hasNext();)
-			for (Iter.Int nit = Cell.neighbors(it.next()); nit.hasNext();) {
-				int n = nit.next();
-				if (game.isValidCell(n))
-					attackableMap.set(n, true);
-			}
-		return attackableMap;
+		return getReachableMap(invisiableEnable).neighbors();
 	}
 
 	private Cell.Bitmap getPotentiallyAttackableMapLongRange() {
@@ -0,0 +1,110 @@
+package com.bugav.battalion.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Cache of values computed from the units on the board.
+ *
+ * Unlike ValuesCache, which drops all the values on any modification, each
+ * value declares the cells it read, and only a modification of the unit in one
+ * of these cells or in one of their neighbors (the visibility of a unit depends
+ * on its neighbors) invalidates it. Values invalidated while the game records
+ * undo are restored when the modification is undone.
+ */
+class UnitsCache {
+
+	private final Game game;
+	private final List<Value<?>> validValues = new ArrayList<>();
+
+	UnitsCache(Game game) {
+		this.game = Objects.requireNonNull(game);
+	}
+
+	/* The cells a value read */
+	interface Dependencies {
+		boolean contains(int x, int y);
+	}
+
+	/**
+	 * Create a new cached value.
+	 *
+	 * @param calc         computes the value
+	 * @param dependencies the cells the computed value read, or null if it depends
+	 *                     on every cell
+	 * @return supplier of the value, recomputing it only if it was invalidated
+	 */
+	<T> Supplier<T> newVal(Supplier<? extends T> calc, Function<? super T, Dependencies> dependencies) {
+		return new Value<>(calc, dependencies);
+	}
+
+	/* must be called before the unit in the cell is modified */
+	void invalidate(int cell) {
+		int x = Cell.x(cell), y = Cell.y(cell);
+		/* iterate backward, a removed value is replaced by the last one */
+		for (int i = validValues.size() - 1; i >= 0; i--) {
+			Value<?> value = validValues.get(i);
+			Dependencies deps = value.dependencies;
+			if (deps == null || deps.contains(x, y) || deps.contains(x + 1, y) || deps.contains(x - 1, y)
+					|| deps.contains(x, y + 1) || deps.contains(x, y - 1))
+				value.invalidate();
+		}
+	}
+
+	void invalidateAll() {
+		while (!validValues.isEmpty())
+			validValues.get(validValues.size() - 1).invalidate();
+	}
+
+	private class Value<T> implements Supplier<T> {
+
+		private final Supplier<? extends T> calc;
+		private final Function<? super T, Dependencies> dependenciesCalc;
+		private T val;
+		private Dependencies dependencies;
+		private int validIdx = -1; /* index in validValues, -1 if invalid */
+
+		Value(Supplier<? extends T> calc, Function<? super T, Dependencies> dependencies) {
+			this.calc = Objects.requireNonNull(calc);
+			this.dependenciesCalc = Objects.requireNonNull(dependencies);
+		}
+
+		@Override
+		public T get() {
+			if (validIdx < 0) {
+				T val = calc.get();
+				setValid(val, dependenciesCalc.apply(val));
+			}
+			return val;
+		}
+
+		private void setValid(T val, Dependencies dependencies) {
+			this.val = val;
+			this.dependencies = dependencies;
+			if (validIdx < 0) {
+				validIdx = validValues.size();
+				validValues.add(this);
+			}
+		}
+
+		void invalidate() {
+			T oldVal = val;
+			Dependencies oldDependencies = dependencies;
+			game.recordUndo(() -> setValid(oldVal, oldDependencies));
+
+			Value<?> last = validValues.remove(validValues.size() - 1);
+			if (last != this) {
+				validValues.set(validIdx, last);
+				last.validIdx = validIdx;
+			}
+			validIdx = -1;
+			val = null;
+			dependencies = null;
+		}
+
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.bugav.battalion.core;
+
+/**
+ * Zobrist keys of the game state components.
+ *
+ * The hash of a game is the XOR of the keys of all its units, buildings, the
+ * money of each team and the current turn, so it can be updated incrementally
+ * by XORing out the old key of a modified component and XORing in the new one.
+ * Instead of tables of random numbers the keys are derived by a strong mixing
+ * function from the packed component state, which keeps them independent of
+ * the board size and the number of units types.
+ */
+final class Zobrist {
+
+	private Zobrist() {
+	}
+
+	private static final long UnitSalt = 0x6a09e667f3bcc908L;
+	private static final long BuildingSalt = 0xbb67ae8584caa73bL;
+	private static final long MoneySalt = 0x3c6ef372fe94f82bL;
+	private static final long TurnSalt = 0xa54ff53a5f1d36f1L;
+
+	static long unit(Unit unit) {
+		long s = 0;
+		s = s * 32 + unit.type.ordinal();
+		s = s * 4 + unit.getTeam().ordinal();
+		s = s * 256 + unit.getHealth();
+		s = s * 2 + (unit.isActive() ? 1 : 0);
+		s = s * 2 + (unit.isRepairing() ? 1 : 0);
+		Unit transported = unit.getTransportedUnit();
+		if (transported != null) {
+			s = s * 32 + transported.type.ordinal() + 1;
+			s = s * 256 + transported.getHealth();
+		}
+		return key(UnitSalt, unit.getPos(), s);
+	}
+
+	static long building(Building building) {
+		long s = 0;
+		s = s * 32 + building.type.ordinal();
+		s = s * 4 + teamIdx(building.getTeam());
+		s = s * 2 + (building.isActive() ? 1 : 0);
+		s = s * 4 + teamIdx(building.getConquerTeam());
+		s = s * 256 + building.getConquerProgressRaw();
+		return key(BuildingSalt, building.getPos(), s);
+	}
+
+	static long money(Team team, int money) {
+		return key(MoneySalt, team.ordinal(), money);
+	}
+
+	static long turn(Team team) {
+		return key(TurnSalt, team.ordinal(), 0);
+	}
+
+	private static int teamIdx(Team team) {
+		return team != null ? team.ordinal() + 1 : 0;
+	}
+
+	private static long key(long salt, int idx, long state) {
+		return mix(mix(salt ^ idx) + state);
+	}
+
+	/* SplitMix64 finalizer */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
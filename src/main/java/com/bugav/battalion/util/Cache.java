@@ -1,30 +1,169 @@
 package com.bugav.battalion.util;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 public interface Cache<K, V> {
 
 	V getOrCompute(K key, Function<? super K, ? extends V> compute);
 
-	public static class FixSize<K, V> implements Cache<K, V> {
+	/**
+	 * Thread safe LRU cache, bounded by the total weight of its values.
+	 *
+	 * The keys are striped into segments by their hash, each an LRU map with its
+	 * own lock and an equal share of the maximum weight, so threads accessing
+	 * different segments don't contend, and the eviction order is LRU within each
+	 * segment. The values are computed outside of the locks, so a slow computation
+	 * doesn't block other threads, and the computation may use the cache itself.
+	 * Two threads missing the same key at the same time may both compute it, and
+	 * the value stored first is returned to both.
+	 */
+	public static class ConcurrentLRU<K, V> implements Cache<K, V> {
 
-		private final Map<K, V> map;
+		private final Segment<K, V>[] segments;
+		private final ToIntFunction<? super V> weigher;
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+		private final LongAdder evictions = new LongAdder();
 
-		public FixSize(int maxSize) {
-			map = new LinkedHashMap<>() {
-				private static final long serialVersionUID = 1L;
+		private static final int MaxSegmentsNum = 16;
 
-				protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-					return map.size() > maxSize;
-				}
-			};
+		/**
+		 * Create a new cache of a fixed number of entries
+		 *
+		 * @param maxSize the maximum number of entries
+		 */
+		public ConcurrentLRU(long maxSize) {
+			this(maxSize, v -> 1);
+		}
+
+		/**
+		 * Create a new cache bounded by the weight of its values
+		 *
+		 * @param maxWeight the maximum total weight of the values
+		 * @param weigher   the weight of a value, such as its memory size. A value
+		 *                  heavier than a segment share of the maximum weight is not
+		 *                  cached
+		 */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public ConcurrentLRU(long maxWeight, ToIntFunction<? super V> weigher) {
+			if (maxWeight <= 0)
+				throw new IllegalArgumentException("non positive weight: " + maxWeight);
+			this.weigher = Objects.requireNonNull(weigher);
+			/* power of two, and each segment can hold at least a few entries */
+			int segmentsNum = (int) Math.min(MaxSegmentsNum, Long.highestOneBit(Math.max(1, maxWeight / 4)));
+			segments = new Segment[segmentsNum];
+			for (int i = 0; i < segmentsNum; i++)
+				segments[i] = new Segment<>((maxWeight + segmentsNum - 1 - i) / segmentsNum);
 		}
 
 		@Override
 		public V getOrCompute(K key, Function<? super K, ? extends V> compute) {
-			return map.computeIfAbsent(key, compute);
+			Segment<K, V> segment = segment(key);
+			V val = segment.get(key);
+			if (val != null) {
+				hits.increment();
+				return val;
+			}
+			misses.increment();
+			val = compute.apply(key);
+			if (val == null)
+				return null;
+			int weight = weigher.applyAsInt(val);
+			if (weight < 0)
+				throw new IllegalArgumentException("negative weight: " + weight);
+			return segment.putIfAbsent(key, val, weight, evictions);
+		}
+
+		private Segment<K, V> segment(K key) {
+			int h = key.hashCode();
+			h ^= h >>> 16;
+			return segments[h & (segments.length - 1)];
+		}
+
+		public void clear() {
+			for (Segment<K, V> segment : segments)
+				segment.clear();
+		}
+
+		public Stats stats() {
+			return new Stats(hits.sum(), misses.sum(), evictions.sum());
+		}
+
+		private static class Segment<K, V> {
+
+			private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+			private final long maxWeight;
+			private long weight;
+
+			Segment(long maxWeight) {
+				this.maxWeight = maxWeight;
+			}
+
+			synchronized V get(K key) {
+				Entry<V> entry = map.get(key);
+				return entry != null ? entry.val : null;
+			}
+
+			synchronized V putIfAbsent(K key, V val, int valWeight, LongAdder evictions) {
+				Entry<V> existing = map.get(key);
+				if (existing != null)
+					return existing.val;
+				if (valWeight > maxWeight)
+					return val;
+				map.put(key, new Entry<>(val, valWeight));
+				weight += valWeight;
+				for (Iterator<Entry<V>> it = map.values().iterator(); weight > maxWeight;) {
+					weight -= it.next().weight;
+					it.remove();
+					evictions.increment();
+				}
+				return val;
+			}
+
+			synchronized void clear() {
+				map.clear();
+				weight = 0;
+			}
+
+		}
+
+		private static class Entry<V> {
+			final V val;
+			final int weight;
+
+			Entry(V val, int weight) {
+				this.val = val;
+				this.weight = weight;
+			}
+		}
+
+	}
+
+	public static class Stats {
+
+		public final long hits;
+		public final long misses;
+		public final long evictions;
+
+		Stats(long hits, long misses, long evictions) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+		}
+
+		public double hitRate() {
+			long lookups = hits + misses;
+			return lookups != 0 ? (double) hits / lookups : 1;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + hits + " misses=" + misses + " evictions=" + evictions;
 		}
 
 	}
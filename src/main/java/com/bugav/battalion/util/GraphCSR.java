@@ -0,0 +1,100 @@
+package com.bugav.battalion.util;
+
+import java.util.Arrays;
+
+/**
+ * Immutable directed graph with int weights, in compressed sparse row format.
+ *
+ * The out edges of a vertex u are the indices [edgesBegin(u), edgesEnd(u)), and
+ * each edge is only an index into the targets and weights arrays, so iterating
+ * the edges doesn't allocate anything.
+ */
+public class GraphCSR {
+
+	private final int n;
+	private final int[] begin; /* size n+1 */
+	private final int[] targets;
+	private final int[] weights;
+	private final int maxWeight;
+
+	private GraphCSR(int n, int[] begin, int[] targets, int[] weights) {
+		this.n = n;
+		this.begin = begin;
+		this.targets = targets;
+		this.weights = weights;
+		maxWeight = Arrays.stream(weights).max().orElse(0);
+	}
+
+	public int vertices() {
+		return n;
+	}
+
+	public int edges() {
+		return targets.length;
+	}
+
+	public int edgesBegin(int u) {
+		return begin[u];
+	}
+
+	public int edgesEnd(int u) {
+		return begin[u + 1];
+	}
+
+	public int edgeTarget(int e) {
+		return targets[e];
+	}
+
+	public int edgeWeight(int e) {
+		return weights[e];
+	}
+
+	public int maxWeight() {
+		return maxWeight;
+	}
+
+	public static class Builder {
+
+		private final int n;
+		private final ListInt sources = new ListInt.Array();
+		private final ListInt targets = new ListInt.Array();
+		private final ListInt weights = new ListInt.Array();
+
+		public Builder(int n) {
+			if (n < 0)
+				throw new IllegalArgumentException();
+			this.n = n;
+		}
+
+		public void addEdge(int u, int v, int weight) {
+			if (!(0 <= u && u < n && 0 <= v && v < n))
+				throw new IndexOutOfBoundsException("(" + u + ", " + v + ")");
+			if (weight < 0)
+				throw new IllegalArgumentException("negative weights are not supported");
+			sources.add(u);
+			targets.add(v);
+			weights.add(weight);
+		}
+
+		public GraphCSR build() {
+			int m = sources.size();
+			int[] begin = new int[n + 1];
+			for (int i = 0; i < m; i++)
+				begin[sources.get(i) + 1]++;
+			for (int u = 0; u < n; u++)
+				begin[u + 1] += begin[u];
+
+			/* edges of the same source keep their insertion order */
+			int[] next = Arrays.copyOf(begin, n);
+			int[] t = new int[m], w = new int[m];
+			for (int i = 0; i < m; i++) {
+				int e = next[sources.get(i)]++;
+				t[e] = targets.get(i);
+				w[e] = weights.get(i);
+			}
+			return new GraphCSR(n, begin, t, w);
+		}
+
+	}
+
+}
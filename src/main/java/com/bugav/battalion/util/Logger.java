@@ -2,6 +2,10 @@ package com.bugav.battalion.util;
 
 import java.io.PrintStream;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.BooleanSupplier;
 
 public interface Logger {
@@ -91,7 +95,7 @@ public interface Logger {
 	public void dbgf(String s, Object... args);
 
 	static Logger createDefault() {
-		return new PrintStreamLogger();
+		return Async.getDefault();
 	}
 
 	static class Enabled extends Forward {
@@ -342,6 +346,430 @@ public interface Logger {
 		}
 	}
 
+	/**
+	 * Logger that writes to another logger on a background thread.
+	 *
+	 * Each call formats its arguments to a string on the calling thread, so the
+	 * logged values are the ones at the time of the call, and enqueues the string
+	 * into a bounded lock-free ring buffer. A single daemon thread drains the
+	 * buffer and writes to the underlying logger, so only the output is done off
+	 * the calling thread. Filtering, such as by Enabled, should wrap this logger,
+	 * so disabled calls format nothing. When the buffer is full, a record is either
+	 * dropped, and the number of dropped records is reported later, or the calling
+	 * thread waits for free space, according to the overflow policy.
+	 */
+	static class Async implements Logger, AutoCloseable {
+
+		enum OverflowPolicy {
+			Drop, Block
+		}
+
+		private final Logger logger;
+		private final OverflowPolicy overflowPolicy;
+
+		/*
+		 * Bounded multi producer single consumer queue. Each slot has a sequence
+		 * number, equal to the enqueue position that may write it, or to that position
+		 * plus one after the record was written and can be read by the consumer.
+		 */
+		private final String[] records;
+		private final boolean[] newlines;
+		private final AtomicLongArray sequences;
+		private final int mask;
+		private final AtomicLong tail = new AtomicLong();
+		private volatile long head; /* written only by the consumer */
+
+		private final Thread consumer;
+		private volatile boolean consumerIdle;
+		private volatile boolean closed;
+		private final LongAdder dropped = new LongAdder();
+		private long droppedReported;
+
+		private static final long IdleParkNanos = 100_000_000;
+		private static Async defaultLogger;
+
+		public Async(Logger logger) {
+			this(logger, 4096, OverflowPolicy.Drop);
+		}
+
+		/**
+		 * Create a new asynchronous logger
+		 *
+		 * The background thread runs until close() is called.
+		 *
+		 * @param logger         the logger to write to, used only by the background
+		 *                       thread
+		 * @param capacity       the maximum number of pending records, rounded up to
+		 *                       a power of two
+		 * @param overflowPolicy what to do when the buffer is full
+		 */
+		public Async(Logger logger, int capacity, OverflowPolicy overflowPolicy) {
+			if (capacity <= 0)
+				throw new IllegalArgumentException("non positive capacity: " + capacity);
+			this.logger = Objects.requireNonNull(logger);
+			this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+			capacity = Integer.highestOneBit(capacity - 1) << 1;
+			if (capacity <= 0)
+				capacity = 1;
+			records = new String[capacity];
+			newlines = new boolean[capacity];
+			sequences = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++)
+				sequences.set(i, i);
+			mask = capacity - 1;
+
+			consumer = new Thread(this::consume, "Logger");
+			consumer.setDaemon(true);
+			consumer.start();
+		}
+
+		/*
+		 * The logger writing to the standard output, shared by all the default loggers
+		 * so the process has a single logger thread, flushed on exit
+		 */
+		static synchronized Async getDefault() {
+			if (defaultLogger == null) {
+				defaultLogger = new Async(new PrintStreamLogger());
+				Runtime.getRuntime().addShutdownHook(new Thread(defaultLogger::flush));
+			}
+			return defaultLogger;
+		}
+
+		private void log(String text, boolean newline) {
+			if (closed)
+				return;
+			if (Thread.currentThread() == consumer) {
+				/* logged by the underlying logger itself, waiting would never end */
+				write(text, newline);
+				return;
+			}
+			while (!offer(text, newline)) {
+				if (overflowPolicy == OverflowPolicy.Drop || closed) {
+					dropped.increment();
+					return;
+				}
+				LockSupport.unpark(consumer);
+				LockSupport.parkNanos(10_000);
+			}
+			if (consumerIdle)
+				LockSupport.unpark(consumer);
+		}
+
+		private boolean offer(String text, boolean newline) {
+			for (long pos = tail.get();;) {
+				int idx = (int) pos & mask;
+				long diff = sequences.get(idx) - pos;
+				if (diff == 0) {
+					if (tail.compareAndSet(pos, pos + 1)) {
+						records[idx] = text;
+						newlines[idx] = newline;
+						sequences.set(idx, pos + 1);
+						return true;
+					}
+					pos = tail.get();
+				} else if (diff < 0) {
+					return false; /* full */
+				} else {
+					pos = tail.get(); /* another producer took the slot */
+				}
+			}
+		}
+
+		/* write the next record, return false if there is none */
+		private boolean poll() {
+			long pos = head;
+			int idx = (int) pos & mask;
+			if (sequences.get(idx) != pos + 1)
+				return false;
+			String text = records[idx];
+			boolean newline = newlines[idx];
+			records[idx] = null;
+			sequences.set(idx, pos + records.length);
+			head = pos + 1;
+			try {
+				write(text, newline);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			return true;
+		}
+
+		private void write(String text, boolean newline) {
+			if (newline)
+				logger.dbgln(text);
+			else
+				logger.dbg(text);
+		}
+
+		private void consume() {
+			for (;;) {
+				if (poll())
+					continue;
+				reportDropped();
+				if (closed && head == tail.get())
+					return;
+				consumerIdle = true;
+				if (head == tail.get())
+					LockSupport.parkNanos(this, IdleParkNanos);
+				consumerIdle = false;
+			}
+		}
+
+		private void reportDropped() {
+			long droppedNum = dropped.sum();
+			if (droppedNum != droppedReported) {
+				logger.dbgln("[logger: " + (droppedNum - droppedReported) + " records dropped]");
+				droppedReported = droppedNum;
+			}
+		}
+
+		/**
+		 * Wait until all the records logged before this call are written
+		 */
+		public void flush() {
+			if (Thread.currentThread() == consumer)
+				return;
+			long target = tail.get();
+			while (head < target && consumer.isAlive()) {
+				LockSupport.unpark(consumer);
+				LockSupport.parkNanos(100_000);
+			}
+		}
+
+		/**
+		 * Write all the pending records and stop the background thread. Records logged
+		 * after this call are dropped.
+		 */
+		@Override
+		public void close() {
+			closed = true;
+			LockSupport.unpark(consumer);
+			if (Thread.currentThread() == consumer)
+				return;
+			try {
+				consumer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private static String concat(Object arg1, Object[] args) {
+			StringBuilder builder = new StringBuilder();
+			builder.append(arg1);
+			for (Object arg : args)
+				builder.append(arg);
+			return builder.toString();
+		}
+
+		@Override
+		public void dbgln() {
+			log("", true);
+		}
+
+		@Override
+		public void dbg(byte s) {
+			log(String.valueOf(s), false);
+		}
+
+		@Override
+		public void dbgln(byte s) {
+			log(String.valueOf(s), true);
+		}
+
+		@Override
+		public void dbg(char s) {
+			log(String.valueOf(s), false);
+		}
+
+		@Override
+		public void dbgln(char s) {
+			log(String.valueOf(s), true);
+		}
+
+		@Override
+		public void dbg(short s) {
+			log(String.valueOf(s), false);
+		}
+
+		@Override
+		public void dbgln(short s) {
+			log(String.valueOf(s), true);
+		}
+
+		@Override
+		public void dbg(int s) {
+			log(String.valueOf(s), false);
+		}
+
+		@Override
+		public void dbgln(int s) {
+			log(String.valueOf(s), true);
+		}
+
+		@Override
+		public void dbg(long s) {
+			log(String.valueOf(s), false);
+		}
+
+		@Override
+		public void dbgln(long s) {
+			log(String.valueOf(s), true);
+		}
+
+		@Override
+		public void dbg(float s) {
+			log(String.valueOf(s), false);
+		}
+
+		@Override
+		public void dbgln(float s) {
+			log(String.valueOf(s), true);
+		}
+
+		@Override
+		public void dbg(double s) {
+			log(String.valueOf(s), false);
+		}
+
+		@Override
+		public void dbgln(double s) {
+			log(String.valueOf(s), true);
+		}
+
+		@Override
+		public void dbg(boolean s) {
+			log(String.valueOf(s), false);
+		}
+
+		@Override
+		public void dbgln(boolean s) {
+			log(String.valueOf(s), true);
+		}
+
+		@Override
+		public void dbg(Object s) {
+			log(String.valueOf(s), false);
+		}
+
+		@Override
+		public void dbgln(Object s) {
+			log(String.valueOf(s), true);
+		}
+
+		@Override
+		public void dbg(Object arg1, Object arg2) {
+			log(String.valueOf(arg1) + arg2, false);
+		}
+
+		@Override
+		public void dbg(Object arg1, Object arg2, Object arg3) {
+			log(String.valueOf(arg1) + arg2 + arg3, false);
+		}
+
+		@Override
+		public void dbg(Object arg1, Object arg2, Object arg3, Object arg4) {
+			log(String.valueOf(arg1) + arg2 + arg3 + arg4, false);
+		}
+
+		@Override
+		public void dbg(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) {
+			log(String.valueOf(arg1) + arg2 + arg3 + arg4 + arg5, false);
+		}
+
+		@Override
+		public void dbg(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6) {
+			log(String.valueOf(arg1) + arg2 + arg3 + arg4 + arg5 + arg6, false);
+		}
+
+		@Override
+		public void dbg(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7) {
+			log(String.valueOf(arg1) + arg2 + arg3 + arg4 + arg5 + arg6 + arg7, false);
+		}
+
+		@Override
+		public void dbg(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7,
+				Object arg8) {
+			log(String.valueOf(arg1) + arg2 + arg3 + arg4 + arg5 + arg6 + arg7 + arg8, false);
+		}
+
+		@Override
+		public void dbg(Object arg1, Object... args) {
+			log(concat(arg1, args), false);
+		}
+
+		@Override
+		public void dbgln(Object arg1, Object arg2) {
+			log(String.valueOf(arg1) + arg2, true);
+		}
+
+		@Override
+		public void dbgln(Object arg1, Object arg2, Object arg3) {
+			log(String.valueOf(arg1) + arg2 + arg3, true);
+		}
+
+		@Override
+		public void dbgln(Object arg1, Object arg2, Object arg3, Object arg4) {
+			log(String.valueOf(arg1) + arg2 + arg3 + arg4, true);
+		}
+
+		@Override
+		public void dbgln(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) {
+			log(String.valueOf(arg1) + arg2 + arg3 + arg4 + arg5, true);
+		}
+
+		@Override
+		public void dbgln(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6) {
+			log(String.valueOf(arg1) + arg2 + arg3 + arg4 + arg5 + arg6, true);
+		}
+
+		@Override
+		public void dbgln(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7) {
+			log(String.valueOf(arg1) + arg2 + arg3 + arg4 + arg5 + arg6 + arg7, true);
+		}
+
+		@Override
+		public void dbgln(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7,
+				Object arg8) {
+			log(String.valueOf(arg1) + arg2 + arg3 + arg4 + arg5 + arg6 + arg7 + arg8, true);
+		}
+
+		@Override
+		public void dbgln(Object arg1, Object... args) {
+			log(concat(arg1, args), true);
+		}
+
+		@Override
+		public void dbgf(String s, Object arg1) {
+			log(String.format(s, arg1), false);
+		}
+
+		@Override
+		public void dbgf(String s, Object arg1, Object arg2) {
+			log(String.format(s, arg1, arg2), false);
+		}
+
+		@Override
+		public void dbgf(String s, Object arg1, Object arg2, Object arg3) {
+			log(String.format(s, arg1, arg2, arg3), false);
+		}
+
+		@Override
+		public void dbgf(String s, Object arg1, Object arg2, Object arg3, Object arg4) {
+			log(String.format(s, arg1, arg2, arg3, arg4), false);
+		}
+
+		@Override
+		public void dbgf(String s, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) {
+			log(String.format(s, arg1, arg2, arg3, arg4, arg5), false);
+		}
+
+		@Override
+		public void dbgf(String s, Object... args) {
+			log(String.format(s, args), false);
+		}
+
+	}
+
 	static class Forward implements Logger {
 
 		final Logger logger;
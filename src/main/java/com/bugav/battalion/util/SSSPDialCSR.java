@@ -0,0 +1,146 @@
+package com.bugav.battalion.util;
+
+import java.util.Arrays;
+
+/**
+ * Dial's shortest paths algorithm on a GraphCSR.
+ *
+ * The queue is a circular array of (maxWeight + 1) buckets, each a doubly linked
+ * list of vertices stored in int arrays, so no maximum distance is needed and a
+ * computation doesn't allocate anything once the buffers are large enough. The
+ * running time is O(m + D) where D is the maximum distance. With 0/1 weights
+ * this is a 0-1 BFS.
+ *
+ * Multiple sources are supported, computing the distance of each vertex from its
+ * nearest source and which source it is, in a single pass.
+ *
+ * An instance is not thread safe, and reuses its buffers across calls.
+ */
+public class SSSPDialCSR {
+
+	public static final int Unreachable = Integer.MAX_VALUE;
+
+	private int[] distances = new int[0];
+	private int[] nearestSources = new int[0];
+	private int[] bucketNext = new int[0];
+	private int[] bucketPrev = new int[0];
+	private int[] bucketHead = new int[0];
+
+	/**
+	 * Calculate the distances from a source to all the vertices of a graph
+	 *
+	 * @param g      a graph
+	 * @param source the source vertex
+	 * @return the distances, indexed by vertex, Unreachable for vertices with no
+	 *         path from the source. The array is a view of an internal buffer,
+	 *         valid until the next call, and may be longer than the number of
+	 *         vertices
+	 */
+	public int[] calcDistances(GraphCSR g, int source) {
+		singleSource[0] = source;
+		return calcDistances(g, singleSource);
+	}
+
+	private final int[] singleSource = new int[1];
+
+	/**
+	 * Calculate the distances from multiple sources to all the vertices of a graph
+	 *
+	 * The distance of a vertex is its distance from the nearest source. The nearest
+	 * source of each vertex is available by nearestSources() until the next call.
+	 *
+	 * @param g       a graph
+	 * @param sources the source vertices
+	 * @return the distances, as in calcDistances(GraphCSR, int)
+	 */
+	public int[] calcDistances(GraphCSR g, int[] sources) {
+		int n = g.vertices();
+		int bucketsNum = g.maxWeight() + 1;
+		memAlloc(n, bucketsNum);
+
+		int[] distances = this.distances, nearest = nearestSources;
+		int[] next = bucketNext, prev = bucketPrev, head = bucketHead;
+		Arrays.fill(distances, 0, n, Unreachable);
+		Arrays.fill(head, 0, bucketsNum, -1);
+
+		int queued = 0;
+		for (int i = 0; i < sources.length; i++) {
+			int source = sources[i];
+			if (!(0 <= source && source < n))
+				throw new IndexOutOfBoundsException(source);
+			if (distances[source] == 0)
+				continue; /* duplicate, the first one is kept */
+			distances[source] = 0;
+			nearest[source] = i;
+			next[source] = head[0];
+			prev[source] = -1;
+			if (head[0] >= 0)
+				prev[head[0]] = source;
+			head[0] = source;
+			queued++;
+		}
+
+		for (int d = 0, b = 0; queued > 0; d++, b = b + 1 < bucketsNum ? b + 1 : 0) {
+			/* all queued vertices are at distances [d, d + maxWeight], one per bucket */
+			for (int u; (u = head[b]) >= 0;) {
+				/* pop u, its distance d is final */
+				head[b] = next[u];
+				if (next[u] >= 0)
+					prev[next[u]] = -1;
+				queued--;
+
+				for (int e = g.edgesBegin(u), end = g.edgesEnd(u); e < end; e++) {
+					int v = g.edgeTarget(e);
+					int dv = d + g.edgeWeight(e);
+					int oldDv = distances[v];
+					if (dv >= oldDv) /* also true for settled vertices */
+						continue;
+					if (oldDv != Unreachable) {
+						/* decrease key, remove from the old bucket */
+						int oldB = oldDv % bucketsNum;
+						if (prev[v] >= 0)
+							next[prev[v]] = next[v];
+						else
+							head[oldB] = next[v];
+						if (next[v] >= 0)
+							prev[next[v]] = prev[v];
+					} else {
+						queued++;
+					}
+					distances[v] = dv;
+					nearest[v] = nearest[u];
+					int vB = dv % bucketsNum;
+					next[v] = head[vB];
+					prev[v] = -1;
+					if (head[vB] >= 0)
+						prev[head[vB]] = v;
+					head[vB] = v;
+				}
+			}
+		}
+		return distances;
+	}
+
+	/**
+	 * Get the nearest source of each vertex, computed by the last call
+	 *
+	 * @return the index in the sources array of the nearest source, indexed by
+	 *         vertex, valid only for reachable vertices. The array is a view of an
+	 *         internal buffer, valid until the next call
+	 */
+	public int[] nearestSources() {
+		return nearestSources;
+	}
+
+	private void memAlloc(int n, int bucketsNum) {
+		if (distances.length < n) {
+			distances = new int[n];
+			nearestSources = new int[n];
+			bucketNext = new int[n];
+			bucketPrev = new int[n];
+		}
+		if (bucketHead.length < bucketsNum)
+			bucketHead = new int[bucketsNum];
+	}
+
+}
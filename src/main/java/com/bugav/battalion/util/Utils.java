@@ -298,6 +298,12 @@ public class Utils {
 		return a == 0 ? b : gcd(b % a, a);
 	}
 
+	public static int lcm(int a, int b) {
+		if (a <= 0 || b <= 0)
+			throw new IllegalArgumentException();
+		return a / gcd(a, b) * b;
+	}
+
 	/* NOT efficient */
 	static int gcdArr(int a[]) {
 		int r = a[0];
@@ -7,9 +7,28 @@ import java.util.function.Supplier;
 public class ValuesCache {
 
 	private volatile int modCount;
+	private int versionsCounter;
 
 	public void invalidate() {
-		modCount++;
+		/* versions are never reused, see restoreVersion() */
+		modCount = ++versionsCounter;
+	}
+
+	public int getVersion() {
+		return modCount;
+	}
+
+	/**
+	 * Restore the cache to a previous version.
+	 *
+	 * Values computed at the given version become valid again, which allow undoing
+	 * a modification without recomputing all the values. The caller must ensure
+	 * the state the values depend on is exactly the state it was at that version.
+	 *
+	 * @param version a version previously returned by getVersion()
+	 */
+	public void restoreVersion(int version) {
+		modCount = version;
 	}
 
 	public <T> Supplier<T> newVal(Supplier<? extends T> calc) {
@@ -0,0 +1,190 @@
+package com.bugav.battalion.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+
+import com.bugav.battalion.util.Iter;
+
+public class CellBitmapTest {
+
+	private static final int[][] Sizes = { { 1, 1 }, { 1, 9 }, { 9, 1 }, { 7, 9 }, { 8, 8 }, { 10, 10 }, { 63, 3 },
+			{ 64, 2 }, { 65, 3 }, { 13, 17 } };
+
+	@Test
+	public void setAndContainsAcrossWords() {
+		Cell.Bitmap map = Cell.Bitmap.ofFalse(10, 10);
+		/* indices 63 and 64 are the last bit of the first word and the first of the second */
+		map.set(3, 6, true);
+		map.set(4, 6, true);
+		map.set(9, 9, true);
+		assertTrue(map.contains(3, 6));
+		assertTrue(map.contains(4, 6));
+		assertTrue(map.contains(Cell.of(9, 9)));
+		assertFalse(map.contains(5, 6));
+		assertEquals(3, map.cardinality());
+
+		map.set(3, 6, false);
+		assertFalse(map.contains(3, 6));
+		assertTrue(map.contains(4, 6));
+		assertEquals(2, map.cardinality());
+	}
+
+	@Test
+	public void outOfRange() {
+		Cell.Bitmap map = Cell.Bitmap.ofTrue(4, 3);
+		assertFalse(map.contains(-1, 0));
+		assertFalse(map.contains(4, 0));
+		assertFalse(map.contains(0, 3));
+		assertThrows(IndexOutOfBoundsException.class, () -> map.set(4, 0, true));
+		assertThrows(IndexOutOfBoundsException.class, () -> map.set(0, -1, true));
+	}
+
+	@Test
+	public void cellsInRowMajorOrder() {
+		Cell.Bitmap map = Cell.Bitmap.ofFalse(65, 3);
+		int[] cells = { Cell.of(0, 0), Cell.of(63, 0), Cell.of(64, 0), Cell.of(0, 1), Cell.of(62, 1), Cell.of(64, 2) };
+		for (int cell : cells)
+			map.set(cell, true);
+		Iter.Int it = map.cells();
+		for (int cell : cells) {
+			assertTrue(it.hasNext());
+			assertEquals(Cell.toString(cell), Cell.toString(it.next()));
+		}
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void notClearsTail() {
+		for (int[] size : Sizes) {
+			int w = size[0], h = size[1];
+			assertEquals(w * h, Cell.Bitmap.ofFalse(w, h).not().cardinality());
+			assertEquals(w * h, Cell.Bitmap.ofTrue(w, h).cardinality());
+			assertTrue(Cell.Bitmap.ofTrue(w, h).not().isEmpty());
+		}
+	}
+
+	@Test
+	public void wordOps() {
+		Random rand = new Random(0x3b1d);
+		for (int[] size : Sizes) {
+			int w = size[0], h = size[1];
+			for (int rep = 0; rep < 8; rep++) {
+				Cell.Bitmap a = random(w, h, rand), b = random(w, h, rand);
+				IntPredicate bPredicate = b::contains; /* not a bitmap, the general path */
+
+				assertBitmapEquals(w, h, c -> a.contains(c) && b.contains(c), a.and(b));
+				assertBitmapEquals(w, h, c -> a.contains(c) && b.contains(c), a.and(bPredicate));
+				assertBitmapEquals(w, h, c -> a.contains(c) || b.contains(c), a.or(b));
+				assertBitmapEquals(w, h, c -> a.contains(c) || b.contains(c), a.or(bPredicate));
+				assertBitmapEquals(w, h, c -> a.contains(c) ^ b.contains(c), a.xor(b));
+				assertBitmapEquals(w, h, c -> a.contains(c) ^ b.contains(c), a.xor(bPredicate));
+				assertBitmapEquals(w, h, c -> a.contains(c) && !b.contains(c), a.andNot(b));
+				assertBitmapEquals(w, h, c -> !a.contains(c), a.not());
+
+				boolean intersects = false;
+				int cardinality = 0;
+				for (Iter.Int it = Cell.Iter2D.of(w, h); it.hasNext();) {
+					int c = it.next();
+					intersects |= a.contains(c) && b.contains(c);
+					if (a.contains(c))
+						cardinality++;
+				}
+				assertEquals(intersects, a.intersects(b));
+				assertEquals(cardinality, a.cardinality());
+				assertEquals(cardinality == 0, a.isEmpty());
+			}
+		}
+	}
+
+	@Test
+	public void inPlaceOpsDoNotModifyArgument() {
+		Random rand = new Random(0x51);
+		Cell.Bitmap a = random(13, 17, rand), b = random(13, 17, rand);
+		Cell.Bitmap bCopy = b.copy();
+		Cell.Bitmap res = a.copy();
+		res.orInPlace(b);
+		res.andNotInPlace(a);
+		assertBitmapEquals(13, 17, c -> b.contains(c) && !a.contains(c), res);
+		assertBitmapEquals(13, 17, bCopy::contains, b);
+	}
+
+	@Test
+	public void dimensionsMismatch() {
+		Cell.Bitmap a = Cell.Bitmap.ofFalse(4, 4), b = Cell.Bitmap.ofFalse(2, 8);
+		assertThrows(IllegalArgumentException.class, () -> a.andInPlace(b));
+		assertThrows(IllegalArgumentException.class, () -> a.intersects(b));
+		/* the general predicate path, cells outside b are not contained */
+		a.set(3, 0, true);
+		assertTrue(a.or(b).contains(3, 0));
+		assertTrue(a.and(b).isEmpty());
+	}
+
+	@Test
+	public void neighbors() {
+		Random rand = new Random(0x7e1);
+		for (int[] size : Sizes) {
+			int w = size[0], h = size[1];
+			for (int rep = 0; rep < 8; rep++) {
+				Cell.Bitmap map = random(w, h, rand);
+				assertBitmapEquals(w, h, c -> {
+					for (Iter.Int it = Cell.neighbors(c); it.hasNext();)
+						if (map.contains(it.next()))
+							return true;
+					return false;
+				}, map.neighbors());
+			}
+		}
+	}
+
+	@Test
+	public void neighborsDoNotWrapRows() {
+		Cell.Bitmap map = Cell.Bitmap.ofFalse(5, 3);
+		map.set(4, 1, true);
+		map.set(0, 2, true);
+		Cell.Bitmap neighbors = map.neighbors();
+		/* (4, 1) and (0, 2) are consecutive bits, but are not neighbors */
+		assertFalse(neighbors.contains(4, 1));
+		assertFalse(neighbors.contains(0, 2));
+		assertTrue(neighbors.contains(3, 1));
+		assertTrue(neighbors.contains(4, 0));
+		assertTrue(neighbors.contains(4, 2));
+		assertTrue(neighbors.contains(1, 2));
+		assertTrue(neighbors.contains(0, 1));
+		assertEquals(5, neighbors.cardinality());
+	}
+
+	@Test
+	public void empty() {
+		Cell.Bitmap map = Cell.Bitmap.empty();
+		assertTrue(map.isEmpty());
+		assertTrue(map.neighbors().isEmpty());
+		assertTrue(map.not().isEmpty());
+		assertFalse(map.cells().hasNext());
+	}
+
+	private static Cell.Bitmap random(int width, int height, Random rand) {
+		double density = rand.nextDouble();
+		return Cell.Bitmap.fromPredicate(width, height, c -> rand.nextDouble() < density);
+	}
+
+	private static void assertBitmapEquals(int width, int height, IntPredicate expected, Cell.Bitmap actual) {
+		assertEquals(width, actual.width());
+		assertEquals(height, actual.height());
+		int cardinality = 0;
+		for (Iter.Int it = Cell.Iter2D.of(width, height); it.hasNext();) {
+			int c = it.next();
+			assertEquals(Cell.toString(c), expected.test(c), actual.contains(c));
+			if (expected.test(c))
+				cardinality++;
+		}
+		assertEquals(cardinality, actual.cardinality());
+	}
+
+}
@@ -0,0 +1,216 @@
+package com.bugav.battalion.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bugav.battalion.core.Level.BuildingDesc;
+import com.bugav.battalion.core.Level.UnitDesc;
+import com.bugav.battalion.util.Iter;
+
+public class GameUndoTest {
+
+	private static final int TurnEndPercent = 10;
+
+	@Test
+	public void undoRestoresGame() {
+		for (long seed = 0; seed < 20; seed++) {
+			Random rand = new Random(seed);
+			Game game = Game.fromLevel(level());
+			game.performAction(Action.Start);
+			game.setUndoEnabled(true);
+
+			List<Game> snapshots = new ArrayList<>();
+			for (int i = 0; i < 60 && !game.isFinished(); i++) {
+				snapshots.add(Game.copyOf(game));
+				game.performAction(randomAction(game, rand));
+
+				/* undo a random suffix of the actions, one by one */
+				if (rand.nextInt(4) == 0) {
+					int undoNum = 1 + rand.nextInt(snapshots.size());
+					for (int j = 0; j < undoNum; j++) {
+						game.undoAction();
+						assertGameEquals(snapshots.remove(snapshots.size() - 1), game);
+					}
+				}
+			}
+			while (!snapshots.isEmpty()) {
+				game.undoAction();
+				assertGameEquals(snapshots.remove(snapshots.size() - 1), game);
+			}
+		}
+	}
+
+	@Test
+	public void actionsAreCovered() {
+		/* make sure the random games perform every action type */
+		boolean conquered = false;
+		List<Class<?>> performed = new ArrayList<>();
+		for (long seed = 0; seed < 20; seed++) {
+			Random rand = new Random(seed);
+			Game game = Game.fromLevel(level());
+			game.performAction(Action.Start);
+			for (int i = 0; i < 60 && !game.isFinished(); i++) {
+				Action action = randomAction(game, rand);
+				if (!performed.contains(action.getClass()))
+					performed.add(action.getClass());
+				game.performAction(action);
+				for (Building building : game.buildings().forEach())
+					conquered |= building.getConquerProgressRaw() > 0;
+			}
+		}
+		for (Class<?> actionType : List.of(Action.TurnEnd.getClass(), Action.UnitMove.class,
+				Action.UnitMoveAndAttack.class, Action.UnitAttackLongRange.class, Action.UnitBuild.class,
+				Action.UnitTransport.class, Action.UnitTransportFinish.class, Action.UnitRepair.class))
+			assertTrue(actionType.getSimpleName(), performed.contains(actionType));
+		assertTrue(conquered);
+	}
+
+	/*
+	 * Red and Blue have land units, a factory and a research facility. Red also
+	 * has a naval control center and units on the shore, so it can transport them
+	 * by water. The oil refineries in the middle can be conquered.
+	 */
+	private static Level level() {
+		LevelBuilder builder = new LevelBuilder(10, 8);
+		for (int x = 0; x < 10; x++) {
+			builder.setTerrain(Cell.of(x, 6), Terrain.Shore);
+			builder.setTerrain(Cell.of(x, 7), Terrain.ClearWater);
+		}
+
+		builder.setBuilding(Cell.of(1, 1), BuildingDesc.of(Building.Type.Factory, Team.Red, true));
+		builder.setBuilding(Cell.of(0, 0), BuildingDesc.of(Building.Type.LandResearchFacility, Team.Red));
+		builder.setBuilding(Cell.of(2, 0), BuildingDesc.of(Building.Type.NavalControlCenter, Team.Red));
+		builder.setBuilding(Cell.of(8, 1), BuildingDesc.of(Building.Type.Factory, Team.Blue, true));
+		builder.setBuilding(Cell.of(9, 0), BuildingDesc.of(Building.Type.LandResearchFacility, Team.Blue));
+		builder.setBuilding(Cell.of(4, 3), BuildingDesc.of(Building.Type.OilRefinery, null));
+		builder.setBuilding(Cell.of(5, 4), BuildingDesc.of(Building.Type.OilRefinery, Team.Blue));
+
+		builder.setUnit(Cell.of(2, 2), UnitDesc.of(Unit.Type.Rifleman, Team.Red));
+		builder.setUnit(Cell.of(3, 4), UnitDesc.of(Unit.Type.Rifleman, Team.Red, 20, true, false));
+		builder.setUnit(Cell.of(1, 6), UnitDesc.of(Unit.Type.Rifleman, Team.Red));
+		builder.setUnit(Cell.of(2, 3), UnitDesc.of(Unit.Type.BattleTank, Team.Red));
+		builder.setUnit(Cell.of(0, 3), UnitDesc.of(Unit.Type.Mortar, Team.Red));
+		builder.setUnit(Cell.of(7, 3), UnitDesc.of(Unit.Type.Rifleman, Team.Blue));
+		builder.setUnit(Cell.of(6, 5), UnitDesc.of(Unit.Type.Rifleman, Team.Blue, 30, true, false));
+		builder.setUnit(Cell.of(8, 4), UnitDesc.of(Unit.Type.BattleTank, Team.Blue));
+		builder.setUnit(Cell.of(9, 3), UnitDesc.of(Unit.Type.Mortar, Team.Blue));
+
+		builder.setStartingMoney(Team.Red, 2000);
+		builder.setStartingMoney(Team.Blue, 2000);
+		return builder.buildLevel();
+	}
+
+	private static Action randomAction(Game game, Random rand) {
+		if (rand.nextInt(100) < TurnEndPercent)
+			return Action.TurnEnd;
+		/* choose the action type first, otherwise the many moves hide the rare actions */
+		Map<Class<?>, List<Action>> actions = new HashMap<>();
+		for (Action action : availableActions(game))
+			actions.computeIfAbsent(action.getClass(), k -> new ArrayList<>()).add(action);
+		if (actions.isEmpty())
+			return Action.TurnEnd;
+		List<List<Action>> byType = new ArrayList<>(actions.values());
+		byType.sort(Comparator.comparing(l -> l.get(0).getClass().getSimpleName()));
+		List<Action> sameType = byType.get(rand.nextInt(byType.size()));
+		return sameType.get(rand.nextInt(sameType.size()));
+	}
+
+	private static List<Action> availableActions(Game game) {
+		List<Action> actions = new ArrayList<>();
+		Team us = game.getTurn();
+		for (Unit unit : game.units(us).forEach()) {
+			if (!unit.isActive())
+				continue;
+			int pos = unit.getPos();
+			Cell.Bitmap reachable = unit.getReachableMap();
+			for (Iter.Int it = unit.getAttackableMap().cells(); it.hasNext();) {
+				int target = it.next();
+				if (unit.type.weapon.type == Unit.Weapon.Type.LongRange) {
+					actions.add(new Action.UnitAttackLongRange(pos, target));
+				} else {
+					for (Iter.Int nit = Cell.neighbors(target); nit.hasNext();) {
+						int destination = nit.next();
+						if (reachable.contains(destination))
+							actions.add(new Action.UnitMoveAndAttack(pos, destination, target));
+					}
+				}
+			}
+			for (Iter.Int it = reachable.cells(); it.hasNext();) {
+				int destination = it.next();
+				if (destination != pos)
+					actions.add(new Action.UnitMove(pos, destination));
+			}
+			if (unit.canTransported(Unit.Type.LandingCraft))
+				actions.add(new Action.UnitTransport(pos, Unit.Type.LandingCraft));
+			if (unit.canFinishTransport())
+				actions.add(new Action.UnitTransportFinish(pos));
+			if (unit.canRepair())
+				actions.add(new Action.UnitRepair(pos));
+		}
+		for (Building factory : game.buildings(us).forEach())
+			if (factory.isActive() && factory.type.canBuildUnits)
+				for (Unit.Type type : Unit.Type.values())
+					if (factory.canBuildUnit(type))
+						actions.add(new Action.UnitBuild(factory.getPos(), type));
+		return actions;
+	}
+
+	private static void assertGameEquals(Game expected, Game actual) {
+		assertEquals(expected.getZobristHash(), actual.getZobristHash());
+		assertEquals(expected.getTurn(), actual.getTurn());
+		assertEquals(expected.isFinished(), actual.isFinished());
+		if (expected.isFinished())
+			assertEquals(expected.getWinner(), actual.getWinner());
+		for (Iter.Int it = expected.cells(); it.hasNext();) {
+			int cell = it.next();
+			assertEquals(toString(expected.unit(cell)), toString(actual.unit(cell)));
+			assertEquals(toString(expected.building(cell)), toString(actual.building(cell)));
+		}
+		/* the lists order determines the actions order, which the search relies on */
+		assertEquals(unitsToString(expected.units()), unitsToString(actual.units()));
+		assertEquals(buildingsToString(expected.buildings()), buildingsToString(actual.buildings()));
+		for (Team team : Team.values()) {
+			assertEquals(expected.getMoney(team), actual.getMoney(team));
+			assertEquals(unitsToString(expected.units(team)), unitsToString(actual.units(team)));
+			assertEquals(buildingsToString(expected.buildings(team)), buildingsToString(actual.buildings(team)));
+		}
+	}
+
+	private static List<String> unitsToString(Iter<Unit> units) {
+		List<String> strs = new ArrayList<>();
+		for (Unit unit : units.forEach())
+			strs.add(toString(unit));
+		return strs;
+	}
+
+	private static List<String> buildingsToString(Iter<Building> buildings) {
+		List<String> strs = new ArrayList<>();
+		for (Building building : buildings.forEach())
+			strs.add(toString(building));
+		return strs;
+	}
+
+	private static String toString(Unit unit) {
+		if (unit == null)
+			return null;
+		return unit + " health=" + unit.getHealth() + " active=" + unit.isActive() + " repairing="
+				+ unit.isRepairing() + " transported=" + toString(unit.getTransportedUnit());
+	}
+
+	private static String toString(Building building) {
+		if (building == null)
+			return null;
+		return building.type + Cell.toString(building.getPos()) + " team=" + building.getTeam() + " active=" + building.isActive() + " conquer="
+				+ building.getConquerTeam() + "/" + building.getConquerProgressRaw();
+	}
+
+}
@@ -0,0 +1,130 @@
+package com.bugav.battalion.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bugav.battalion.core.Level.UnitDesc;
+
+public class UnitsCacheTest {
+
+	private Game game;
+
+	@Before
+	public void setUp() {
+		LevelBuilder builder = new LevelBuilder(8, 8);
+		builder.setUnit(Cell.of(1, 1), UnitDesc.of(Unit.Type.Rifleman, Team.Red));
+		builder.setUnit(Cell.of(6, 6), UnitDesc.of(Unit.Type.Rifleman, Team.Blue));
+		game = Game.fromLevel(builder.buildLevel());
+		game.performAction(Action.Start);
+	}
+
+	@Test
+	public void cachedUntilInvalidated() {
+		Counter counter = new Counter();
+		Supplier<Object> val = game.unitsCache.newVal(counter, v -> cell(5, 5));
+		Object v1 = val.get();
+		assertSame(v1, val.get());
+		assertEquals(1, counter.count);
+
+		game.performAction(new Action.UnitMove(Cell.of(1, 1), Cell.of(1, 2)));
+		assertSame(v1, val.get());
+		assertEquals(1, counter.count);
+	}
+
+	@Test
+	public void invalidateByDependencyOrItsNeighbors() {
+		Counter atDest = new Counter(), nearDest = new Counter(), nearSource = new Counter(), far = new Counter(),
+				all = new Counter();
+		Supplier<Object> atDestVal = game.unitsCache.newVal(atDest, v -> cell(2, 1));
+		Supplier<Object> nearDestVal = game.unitsCache.newVal(nearDest, v -> cell(2, 2));
+		Supplier<Object> nearSourceVal = game.unitsCache.newVal(nearSource, v -> cell(0, 1));
+		Supplier<Object> farVal = game.unitsCache.newVal(far, v -> cell(4, 4));
+		Supplier<Object> allVal = game.unitsCache.newVal(all, v -> null);
+		for (Supplier<Object> val : List.of(atDestVal, nearDestVal, nearSourceVal, farVal, allVal))
+			val.get();
+
+		game.performAction(new Action.UnitMove(Cell.of(1, 1), Cell.of(2, 1)));
+		for (Supplier<Object> val : List.of(atDestVal, nearDestVal, nearSourceVal, farVal, allVal))
+			val.get();
+		assertEquals(2, atDest.count);
+		assertEquals(2, nearDest.count);
+		assertEquals(2, nearSource.count);
+		assertEquals(1, far.count);
+		assertEquals(2, all.count);
+	}
+
+	@Test
+	public void undoRestoresInvalidatedValues() {
+		game.setUndoEnabled(true);
+		Counter counter = new Counter(), allCounter = new Counter();
+		Supplier<Object> val = game.unitsCache.newVal(counter, v -> cell(1, 2));
+		Supplier<Object> allVal = game.unitsCache.newVal(allCounter, v -> null);
+		Object v1 = val.get(), all1 = allVal.get();
+
+		game.performAction(new Action.UnitMove(Cell.of(1, 1), Cell.of(1, 3)));
+		Object v2 = val.get();
+		assertNotSame(v1, v2);
+		assertEquals(2, counter.count);
+
+		game.undoAction();
+		assertSame(v1, val.get());
+		assertSame(all1, allVal.get());
+		assertEquals(2, counter.count);
+		assertEquals(1, allCounter.count);
+
+		/* the restored values are tracked again, and invalidated by the next modification */
+		game.performAction(new Action.UnitMove(Cell.of(1, 1), Cell.of(1, 2)));
+		assertNotSame(v1, val.get());
+		assertEquals(3, counter.count);
+	}
+
+	@Test
+	public void undoOfValuesNotReadDuringAction() {
+		game.setUndoEnabled(true);
+		Counter counter = new Counter();
+		Supplier<Object> val = game.unitsCache.newVal(counter, v -> cell(1, 2));
+		Object v1 = val.get();
+
+		/* invalidated and not recomputed before the undo */
+		game.performAction(new Action.UnitMove(Cell.of(1, 1), Cell.of(1, 2)));
+		game.undoAction();
+		assertSame(v1, val.get());
+		assertEquals(1, counter.count);
+	}
+
+	@Test
+	public void invalidateAll() {
+		Counter counter1 = new Counter(), counter2 = new Counter();
+		Supplier<Object> val1 = game.unitsCache.newVal(counter1, v -> cell(4, 4));
+		Supplier<Object> val2 = game.unitsCache.newVal(counter2, v -> null);
+		val1.get();
+		val2.get();
+		game.unitsCache.invalidateAll();
+		val1.get();
+		val2.get();
+		assertEquals(2, counter1.count);
+		assertEquals(2, counter2.count);
+	}
+
+	private static UnitsCache.Dependencies cell(int x, int y) {
+		return (x1, y1) -> x1 == x && y1 == y;
+	}
+
+	private static class Counter implements Supplier<Object> {
+		int count;
+
+		@Override
+		public Object get() {
+			count++;
+			return new Object();
+		}
+	}
+
+}
@@ -0,0 +1,156 @@
+package com.bugav.battalion.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class CacheTest {
+
+	@Test
+	public void computeOnlyOnMiss() {
+		Cache.ConcurrentLRU<Integer, String> cache = new Cache.ConcurrentLRU<>(16);
+		AtomicInteger computations = new AtomicInteger();
+		String v1 = cache.getOrCompute(Integer.valueOf(1), k -> {
+			computations.incrementAndGet();
+			return "v" + k;
+		});
+		String v2 = cache.getOrCompute(Integer.valueOf(1), k -> {
+			computations.incrementAndGet();
+			return "other";
+		});
+		assertSame(v1, v2);
+		assertEquals(1, computations.get());
+
+		Cache.Stats stats = cache.stats();
+		assertEquals(1, stats.hits);
+		assertEquals(1, stats.misses);
+		assertEquals(0, stats.evictions);
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed() {
+		/* small enough for a single segment, so the eviction order is global */
+		Cache.ConcurrentLRU<Integer, String> cache = new Cache.ConcurrentLRU<>(4);
+		for (int k = 1; k <= 4; k++)
+			put(cache, k);
+		assertEquals("v1", get(cache, 1)); /* 1 is now the most recently used */
+
+		put(cache, 5);
+		assertNull(get(cache, 2));
+		for (int k : new int[] { 1, 3, 4, 5 })
+			assertEquals("v" + k, get(cache, k));
+		assertEquals(1, cache.stats().evictions);
+
+		put(cache, 6);
+		assertNull(get(cache, 1));
+		assertEquals(2, cache.stats().evictions);
+	}
+
+	@Test
+	public void evictByWeight() {
+		Cache.ConcurrentLRU<Integer, String> cache = new Cache.ConcurrentLRU<>(6, String::length);
+		cache.getOrCompute(Integer.valueOf(1), k -> "aaa");
+		cache.getOrCompute(Integer.valueOf(2), k -> "bbb");
+		assertEquals("aaa", get(cache, 1));
+		assertEquals("bbb", get(cache, 2));
+		assertEquals(0, cache.stats().evictions);
+
+		/* total weight 8, the least recently used is evicted until it is at most 6 */
+		cache.getOrCompute(Integer.valueOf(3), k -> "cc");
+		assertNull(get(cache, 1));
+		assertEquals("bbb", get(cache, 2));
+		assertEquals("cc", get(cache, 3));
+		assertEquals(1, cache.stats().evictions);
+
+		/* a single heavy value evicts several light ones */
+		cache.getOrCompute(Integer.valueOf(4), k -> "dddddd");
+		assertNull(get(cache, 2));
+		assertNull(get(cache, 3));
+		assertEquals("dddddd", get(cache, 4));
+		assertEquals(3, cache.stats().evictions);
+	}
+
+	@Test
+	public void tooHeavyValueNotCached() {
+		Cache.ConcurrentLRU<Integer, String> cache = new Cache.ConcurrentLRU<>(6, String::length);
+		cache.getOrCompute(Integer.valueOf(1), k -> "aaa");
+		assertEquals("eeeeeee", cache.getOrCompute(Integer.valueOf(2), k -> "eeeeeee"));
+		assertNull(get(cache, 2));
+		assertEquals("aaa", get(cache, 1));
+		assertEquals(0, cache.stats().evictions);
+	}
+
+	@Test
+	public void nullNotCached() {
+		Cache.ConcurrentLRU<Integer, String> cache = new Cache.ConcurrentLRU<>(4);
+		assertNull(cache.getOrCompute(Integer.valueOf(1), k -> null));
+		assertEquals("v1", put(cache, 1));
+		assertEquals(2, cache.stats().misses);
+	}
+
+	@Test
+	public void clear() {
+		Cache.ConcurrentLRU<Integer, String> cache = new Cache.ConcurrentLRU<>(4);
+		put(cache, 1);
+		cache.clear();
+		assertNull(get(cache, 1));
+	}
+
+	@Test
+	public void invalidArguments() {
+		assertThrows(IllegalArgumentException.class, () -> new Cache.ConcurrentLRU<Integer, String>(0));
+		Cache.ConcurrentLRU<Integer, String> cache = new Cache.ConcurrentLRU<>(4, v -> -1);
+		assertThrows(IllegalArgumentException.class, () -> put(cache, 1));
+	}
+
+	@Test
+	public void concurrentAccessBoundsWeight() throws InterruptedException {
+		int maxSize = 64;
+		Cache.ConcurrentLRU<Integer, String> cache = new Cache.ConcurrentLRU<>(maxSize);
+		List<Thread> threads = new ArrayList<>();
+		AtomicReference<String> error = new AtomicReference<>();
+		for (int t = 0; t < 4; t++) {
+			int seed = t;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 10_000; i++) {
+					int k = (i * 31 + seed * 7) % 200;
+					String v = put(cache, k);
+					if (!v.equals("v" + k))
+						error.compareAndSet(null, v + " != v" + k);
+				}
+			}));
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		assertNull(error.get());
+
+		int cached = 0;
+		for (int k = 0; k < 200; k++)
+			if (get(cache, k) != null)
+				cached++;
+		assertTrue(cached + " > " + maxSize, cached <= maxSize);
+		Cache.Stats stats = cache.stats();
+		assertEquals(4 * 10_000 + 200, stats.hits + stats.misses);
+	}
+
+	private static String put(Cache.ConcurrentLRU<Integer, String> cache, int key) {
+		return cache.getOrCompute(Integer.valueOf(key), k -> "v" + k);
+	}
+
+	/* the cached value, or null if the key is not cached */
+	private static String get(Cache.ConcurrentLRU<Integer, String> cache, int key) {
+		return cache.getOrCompute(Integer.valueOf(key), k -> null);
+	}
+
+}
@@ -0,0 +1,62 @@
+package com.bugav.battalion.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+public class GraphCSRTest {
+
+	@Test
+	public void edgesGroupedBySource() {
+		GraphCSR.Builder builder = new GraphCSR.Builder(4);
+		builder.addEdge(2, 0, 5);
+		builder.addEdge(0, 1, 1);
+		builder.addEdge(2, 3, 0);
+		builder.addEdge(0, 2, 7);
+		builder.addEdge(2, 2, 3);
+		GraphCSR g = builder.build();
+
+		assertEquals(4, g.vertices());
+		assertEquals(5, g.edges());
+		assertEquals(7, g.maxWeight());
+
+		/* edges of the same source keep their insertion order */
+		assertEdges(g, 0, new int[] { 1, 2 }, new int[] { 1, 7 });
+		assertEdges(g, 1, new int[] {}, new int[] {});
+		assertEdges(g, 2, new int[] { 0, 3, 2 }, new int[] { 5, 0, 3 });
+		assertEdges(g, 3, new int[] {}, new int[] {});
+	}
+
+	@Test
+	public void empty() {
+		GraphCSR g = new GraphCSR.Builder(0).build();
+		assertEquals(0, g.vertices());
+		assertEquals(0, g.edges());
+		assertEquals(0, g.maxWeight());
+
+		g = new GraphCSR.Builder(3).build();
+		assertEquals(3, g.vertices());
+		for (int u = 0; u < 3; u++)
+			assertEquals(g.edgesBegin(u), g.edgesEnd(u));
+	}
+
+	@Test
+	public void invalidEdges() {
+		GraphCSR.Builder builder = new GraphCSR.Builder(3);
+		assertThrows(IndexOutOfBoundsException.class, () -> builder.addEdge(0, 3, 1));
+		assertThrows(IndexOutOfBoundsException.class, () -> builder.addEdge(-1, 0, 1));
+		assertThrows(IllegalArgumentException.class, () -> builder.addEdge(0, 1, -1));
+		assertThrows(IllegalArgumentException.class, () -> new GraphCSR.Builder(-1));
+	}
+
+	private static void assertEdges(GraphCSR g, int u, int[] targets, int[] weights) {
+		assertEquals(targets.length, g.edgesEnd(u) - g.edgesBegin(u));
+		for (int i = 0; i < targets.length; i++) {
+			int e = g.edgesBegin(u) + i;
+			assertEquals(targets[i], g.edgeTarget(e));
+			assertEquals(weights[i], g.edgeWeight(e));
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.bugav.battalion.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LoggerTest {
+
+	@Test
+	public void flushWritesPendingRecords() {
+		Output out = new Output();
+		try (Logger.Async logger = new Logger.Async(out.logger)) {
+			logger.dbg("a", Integer.valueOf(1));
+			logger.dbgln(" b");
+			logger.dbgln('c');
+			logger.dbgf("%d%s", Integer.valueOf(2), "d");
+			logger.dbgln();
+			logger.flush();
+			assertEquals(List.of("a1 b", "c", "2d"), out.lines());
+		}
+	}
+
+	@Test
+	public void argumentsFormattedOnCall() {
+		Output out = new Output();
+		try (Logger.Async logger = new Logger.Async(out.logger)) {
+			StringBuilder arg = new StringBuilder("before");
+			logger.dbgln(arg);
+			arg.setLength(0);
+			arg.append("after");
+			logger.flush();
+			assertEquals(List.of("before"), out.lines());
+		}
+	}
+
+	@Test
+	public void overflowDrop() throws InterruptedException {
+		Output out = new Output();
+		BlockingLogger blocking = new BlockingLogger(out.logger);
+		Logger.Async logger = new Logger.Async(blocking, 2, Logger.Async.OverflowPolicy.Drop);
+		logger.dbgln("a");
+		/* the background thread took "a" and waits, the buffer is empty */
+		assertTrue(blocking.entered.await(10, TimeUnit.SECONDS));
+		logger.dbgln("b");
+		logger.dbgln("c");
+		logger.dbgln("d");
+		logger.dbgln("e");
+		blocking.release.countDown();
+		logger.close();
+		assertEquals(List.of("a", "b", "c", "[logger: 2 records dropped]"), out.lines());
+	}
+
+	@Test
+	public void overflowBlock() throws InterruptedException {
+		Output out = new Output();
+		List<String> expected = new ArrayList<>();
+		try (Logger.Async logger = new Logger.Async(out.logger, 2, Logger.Async.OverflowPolicy.Block)) {
+			List<Thread> threads = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				String prefix = "t" + t + ":";
+				threads.add(new Thread(() -> {
+					for (int i = 0; i < 500; i++)
+						logger.dbgln(prefix, Integer.valueOf(i));
+				}));
+				for (int i = 0; i < 500; i++)
+					expected.add(prefix + i);
+			}
+			for (Thread thread : threads)
+				thread.start();
+			for (Thread thread : threads)
+				thread.join();
+			logger.flush();
+		}
+
+		/* nothing is dropped, and the records of each thread keep their order */
+		List<String> lines = out.lines();
+		assertEquals(expected.size(), lines.size());
+		for (int t = 0; t < 4; t++) {
+			String prefix = "t" + t + ":";
+			List<String> threadLines = lines.stream().filter(l -> l.startsWith(prefix)).toList();
+			assertEquals(expected.stream().filter(l -> l.startsWith(prefix)).toList(), threadLines);
+		}
+	}
+
+	@Test
+	public void closeWritesPendingAndDropsLater() {
+		Output out = new Output();
+		Logger.Async logger = new Logger.Async(out.logger);
+		for (int i = 0; i < 100; i++)
+			logger.dbgln(Integer.valueOf(i));
+		logger.close();
+		logger.dbgln("after close");
+		logger.flush();
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			expected.add(Integer.toString(i));
+		assertEquals(expected, out.lines());
+	}
+
+	@Test
+	public void capacityRoundedToPowerOfTwo() throws InterruptedException {
+		Output out = new Output();
+		BlockingLogger blocking = new BlockingLogger(out.logger);
+		Logger.Async logger = new Logger.Async(blocking, 3, Logger.Async.OverflowPolicy.Drop);
+		logger.dbgln("a");
+		assertTrue(blocking.entered.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 5; i++)
+			logger.dbgln(Integer.valueOf(i));
+		blocking.release.countDown();
+		logger.close();
+		assertEquals(List.of("a", "0", "1", "2", "3", "[logger: 1 records dropped]"), out.lines());
+	}
+
+	private static class Output {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final Logger logger = new Logger.PrintStreamLogger(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+
+		List<String> lines() {
+			String s = bytes.toString(StandardCharsets.UTF_8);
+			return s.isEmpty() ? List.of() : Arrays.asList(s.split("\\R"));
+		}
+	}
+
+	/* blocks the first write until released */
+	private static class BlockingLogger extends Logger.Forward {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		BlockingLogger(Logger logger) {
+			super(logger);
+		}
+
+		@Override
+		void beforeDbg() {
+			entered.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
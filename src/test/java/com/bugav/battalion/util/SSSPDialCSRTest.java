@@ -0,0 +1,188 @@
+package com.bugav.battalion.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SSSPDialCSRTest {
+
+	private static final int Unreachable = SSSPDialCSR.Unreachable;
+
+	@Test
+	public void path() {
+		GraphCSR.Builder builder = new GraphCSR.Builder(5);
+		for (int u = 0; u < 4; u++) {
+			builder.addEdge(u, u + 1, 2);
+			builder.addEdge(u + 1, u, 3);
+		}
+		GraphCSR g = builder.build();
+		SSSPDialCSR sssp = new SSSPDialCSR();
+		assertDistances(new int[] { 0, 2, 4, 6, 8 }, sssp.calcDistances(g, 0), 5);
+		assertDistances(new int[] { 6, 3, 0, 2, 4 }, sssp.calcDistances(g, 2), 5);
+	}
+
+	@Test
+	public void unreachable() {
+		GraphCSR.Builder builder = new GraphCSR.Builder(4);
+		builder.addEdge(0, 1, 1);
+		builder.addEdge(2, 0, 1);
+		GraphCSR g = builder.build();
+		assertDistances(new int[] { 0, 1, Unreachable, Unreachable }, new SSSPDialCSR().calcDistances(g, 0), 4);
+	}
+
+	@Test
+	public void zeroWeights() {
+		GraphCSR.Builder builder = new GraphCSR.Builder(4);
+		builder.addEdge(0, 1, 0);
+		builder.addEdge(1, 2, 1);
+		builder.addEdge(0, 2, 1);
+		builder.addEdge(2, 3, 0);
+		GraphCSR g = builder.build();
+		assertDistances(new int[] { 0, 0, 1, 1 }, new SSSPDialCSR().calcDistances(g, 0), 4);
+	}
+
+	@Test
+	public void decreaseKey() {
+		/* 3 and 4 are first queued by the heavy edges, then by shorter paths */
+		GraphCSR.Builder builder = new GraphCSR.Builder(5);
+		builder.addEdge(0, 3, 9);
+		builder.addEdge(0, 4, 8);
+		builder.addEdge(0, 1, 1);
+		builder.addEdge(1, 2, 1);
+		builder.addEdge(2, 3, 1);
+		builder.addEdge(1, 4, 5);
+		builder.addEdge(3, 4, 1);
+		GraphCSR g = builder.build();
+		assertDistances(new int[] { 0, 1, 2, 3, 4 }, new SSSPDialCSR().calcDistances(g, 0), 5);
+	}
+
+	@Test
+	public void decreaseKeyInSameBucketList() {
+		/* several vertices share the bucket of 6, and are removed from it in different list positions */
+		GraphCSR.Builder builder = new GraphCSR.Builder(6);
+		for (int v = 1; v <= 4; v++)
+			builder.addEdge(0, v, 6);
+		builder.addEdge(0, 5, 1);
+		builder.addEdge(5, 2, 1);
+		builder.addEdge(5, 4, 2);
+		builder.addEdge(5, 3, 4);
+		GraphCSR g = builder.build();
+		assertDistances(new int[] { 0, 6, 2, 5, 3, 1 }, new SSSPDialCSR().calcDistances(g, 0), 6);
+	}
+
+	@Test
+	public void randomGraphs() {
+		Random rand = new Random(0x9a3c);
+		SSSPDialCSR sssp = new SSSPDialCSR(); /* reused, the buffers grow and shrink between graphs */
+		for (int rep = 0; rep < 200; rep++) {
+			int n = 1 + rand.nextInt(rep % 2 == 0 ? 8 : 60);
+			int m = rand.nextInt(n * 4);
+			int maxWeight = rand.nextInt(10);
+			GraphCSR g = randGraph(n, m, maxWeight, rand);
+			int source = rand.nextInt(n);
+			assertDistances(bellmanFord(g, source), sssp.calcDistances(g, source), n);
+		}
+	}
+
+	@Test
+	public void multiSourceLabels() {
+		GraphCSR.Builder builder = new GraphCSR.Builder(6);
+		for (int u = 0; u < 5; u++) {
+			builder.addEdge(u, u + 1, 1);
+			builder.addEdge(u + 1, u, 1);
+		}
+		GraphCSR g = builder.build();
+		SSSPDialCSR sssp = new SSSPDialCSR();
+		assertDistances(new int[] { 0, 1, 2, 2, 1, 0 }, sssp.calcDistances(g, new int[] { 0, 5 }), 6);
+		assertArrayEquals(new int[] { 0, 0, 0, 1, 1, 1 }, Arrays.copyOf(sssp.nearestSources(), 6));
+
+		/* the labels are indices in the sources array, not vertices */
+		assertDistances(new int[] { 1, 0, 1, 1, 0, 1 }, sssp.calcDistances(g, new int[] { 4, 1 }), 6);
+		assertArrayEquals(new int[] { 1, 1, 1, 0, 0, 0 }, Arrays.copyOf(sssp.nearestSources(), 6));
+	}
+
+	@Test
+	public void multiSourceDuplicates() {
+		GraphCSR.Builder builder = new GraphCSR.Builder(3);
+		builder.addEdge(0, 1, 2);
+		builder.addEdge(2, 1, 2);
+		GraphCSR g = builder.build();
+		SSSPDialCSR sssp = new SSSPDialCSR();
+		assertDistances(new int[] { 0, 2, Unreachable }, sssp.calcDistances(g, new int[] { 0, 0 }), 3);
+		assertEquals(0, sssp.nearestSources()[0]);
+		assertEquals(0, sssp.nearestSources()[1]);
+	}
+
+	@Test
+	public void multiSourceRandomGraphs() {
+		Random rand = new Random(0x18);
+		SSSPDialCSR sssp = new SSSPDialCSR();
+		for (int rep = 0; rep < 200; rep++) {
+			int n = 1 + rand.nextInt(40);
+			GraphCSR g = randGraph(n, rand.nextInt(n * 4), rand.nextInt(6), rand);
+			int[] sources = new int[1 + rand.nextInt(4)];
+			for (int i = 0; i < sources.length; i++)
+				sources[i] = rand.nextInt(n);
+			int[][] distancesFrom = new int[sources.length][];
+			for (int i = 0; i < sources.length; i++)
+				distancesFrom[i] = bellmanFord(g, sources[i]);
+
+			int[] distances = sssp.calcDistances(g, sources);
+			int[] nearest = sssp.nearestSources();
+			for (int v = 0; v < n; v++) {
+				int expected = Unreachable;
+				for (int i = 0; i < sources.length; i++)
+					expected = Math.min(expected, distancesFrom[i][v]);
+				assertEquals(expected, distances[v]);
+				/* ties may be labeled by any of the nearest sources */
+				if (expected != Unreachable)
+					assertEquals(expected, distancesFrom[nearest[v]][v]);
+			}
+		}
+	}
+
+	@Test
+	public void invalidSource() {
+		GraphCSR g = new GraphCSR.Builder(3).build();
+		assertThrows(IndexOutOfBoundsException.class, () -> new SSSPDialCSR().calcDistances(g, 3));
+	}
+
+	static GraphCSR randGraph(int n, int m, int maxWeight, Random rand) {
+		GraphCSR.Builder builder = new GraphCSR.Builder(n);
+		for (int i = 0; i < m; i++)
+			builder.addEdge(rand.nextInt(n), rand.nextInt(n), rand.nextInt(maxWeight + 1));
+		return builder.build();
+	}
+
+	static int[] bellmanFord(GraphCSR g, int source) {
+		int n = g.vertices();
+		int[] distances = new int[n];
+		Arrays.fill(distances, Unreachable);
+		distances[source] = 0;
+		for (boolean changed = true; changed;) {
+			changed = false;
+			for (int u = 0; u < n; u++) {
+				if (distances[u] == Unreachable)
+					continue;
+				for (int e = g.edgesBegin(u); e < g.edgesEnd(u); e++) {
+					int v = g.edgeTarget(e), d = distances[u] + g.edgeWeight(e);
+					if (d < distances[v]) {
+						distances[v] = d;
+						changed = true;
+					}
+				}
+			}
+		}
+		return distances;
+	}
+
+	static void assertDistances(int[] expected, int[] actual, int n) {
+		assertArrayEquals(expected, Arrays.copyOf(actual, n));
+	}
+
+}